@@ -0,0 +1,33 @@
+package org.dshops.metrics;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks matching args[0] (default: all) at 1, 2, 4 .. availableProcessors threads,
+ * with the gc profiler attached, so allocation per op (gc.alloc.rate.norm) is reported alongside time per op.
+ * Results are written to target/jmh-result-[threads]t.json for comparison between releases.
+ * */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            Options opts = new OptionsBuilder().include(include)
+                                               .threads(threads)
+                                               .addProfiler(GCProfiler.class)
+                                               .resultFormat(ResultFormatType.JSON)
+                                               .result("target/jmh-result-" + threads + "t.json")
+                                               .build();
+            new Runner(opts).run();
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+}
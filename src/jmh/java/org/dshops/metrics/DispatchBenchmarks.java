@@ -0,0 +1,62 @@
+package org.dshops.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of MetricRegistry.dispatchEvent fanning an already built event out to 0, 1 or 4 listeners,
+ * on the calling thread, or published to the async dispatch ring (cost seen by the application thread).
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmarks {
+    @Param({"0", "1", "4"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    private MetricRegistry registry;
+    private EventImpl event;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MetricRegistry.enableRegistryCaching(false);
+        MetricRegistry.Builder builder = new MetricRegistry.Builder("bench", "metrics", "jmh", "host", "dc");
+        if (async) {
+            builder.withAsyncDispatch(64 * 1024, WaitStrategy.BLOCKING, 1);
+        }
+        registry = builder.build();
+        for (int i = 0; i < listenerCount; i++) {
+            registry.addEventListener(new NoopListener());
+        }
+        event = new LongEvent("bench.metrics.jmh.dispatch.event", registry.getTags(), System.currentTimeMillis(), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        registry.removeAllEventListeners(true);
+    }
+
+    @Benchmark
+    public void dispatchEvent() {
+        registry.dispatchEvent(event);
+    }
+}
@@ -0,0 +1,20 @@
+package org.dshops.metrics;
+
+/** Listener that only retains the last event, so the benchmarks measure the registry rather than a backend. */
+class NoopListener implements EventListener {
+    volatile Event last;
+
+    @Override
+    public void onEvent(Event e) {
+        last = e;
+    }
+
+    @Override
+    public int eventsBuffered() {
+        return 0;
+    }
+
+    @Override
+    public void stop() {
+    }
+}
@@ -0,0 +1,111 @@
+package org.dshops.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per call of the MetricRegistry hot paths, with a single no-op listener attached.
+ * Thread count is driven by BenchmarkRunner (or -t on the jmh command line).
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistryBenchmarks {
+    private MetricRegistry registry;
+    private NoopListener listener;
+    private Meter meter;
+    private CounterHandle counterHandle;
+    private EventHandle eventHandle;
+    private EventBucketHandle eventBucketHandle;
+    private TimerHandle timerHandle;
+    private TimerHandle percentileTimerHandle;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MetricRegistry.enableRegistryCaching(false);
+        registry = new MetricRegistry.Builder("bench", "metrics", "jmh", "host", "dc").build();
+        listener = new NoopListener();
+        registry.addEventListener(listener);
+        meter = registry.scheduleMeter("bench", 1);
+        counterHandle = registry.counterHandle("benchHandle", "tag", "value");
+        eventHandle = registry.eventHandle("benchHandle", "tag", "value");
+        eventBucketHandle = registry.eventBucketHandle("benchHandle", "tag", "value");
+        timerHandle = registry.timerHandle("benchHandle", "tag", "value");
+        percentileTimerHandle = registry.percentileTimerHandle("benchHandle", "tag", "value");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        registry.removeAllEventListeners(true);
+    }
+
+    @Benchmark
+    public long timerStop() {
+        return registry.timer("bench", "tag", "value").stop();
+    }
+
+    @Benchmark
+    public long percentileTimerStop() {
+        return registry.percentileTimer("bench", "tag", "value").stop();
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        registry.counter("bench", "tag", "value").increment();
+    }
+
+    @Benchmark
+    public void event() {
+        registry.event("bench", 1, "tag", "value");
+    }
+
+    @Benchmark
+    public void eventBucket() {
+        registry.eventBucket("bench", 1, "tag", "value");
+    }
+
+    @Benchmark
+    public void meterMark() {
+        meter.mark();
+    }
+
+    @Benchmark
+    public void counterHandleIncrement() {
+        counterHandle.increment();
+    }
+
+    @Benchmark
+    public void eventHandle() {
+        eventHandle.event(1);
+    }
+
+    @Benchmark
+    public void eventBucketHandle() {
+        eventBucketHandle.update(1);
+    }
+
+    @Benchmark
+    public long timerHandleStop() {
+        return timerHandle.stop(timerHandle.start());
+    }
+
+    @Benchmark
+    public long percentileTimerHandleStop() {
+        return percentileTimerHandle.stop(percentileTimerHandle.start());
+    }
+}
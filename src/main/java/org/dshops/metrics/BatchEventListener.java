@@ -0,0 +1,14 @@
+package org.dshops.metrics;
+
+/** An EventListener receiving events in batches, one call per batch rather than per event.
+ *  Batches come from gauge groups (MetricRegistry.dispatchBatch) and async dispatch (each consumer run), single events
+ *  are still delivered through onEvent(Event).  See listeners.AbstractBatchingListener for a queueing base class.
+ * */
+public interface BatchEventListener extends EventListener {
+    /** Receives events[0..count), the array is re-used once this returns (and must not be written to),
+     *  events themselves can be kept.
+     * @param events the events
+     * @param count number of events in the array
+     * */
+    public void onEvents(Event[] events, int count);
+}
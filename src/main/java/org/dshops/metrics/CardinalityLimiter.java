@@ -0,0 +1,153 @@
+package org.dshops.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/** Caps the number of series (tag combinations) per metric name, see MetricRegistry.Builder.withMaxSeriesPerMetric(..).
+ *
+ *  The limiter is only consulted when a series does not exist yet, existing series are still a single lock free map lookup.
+ *  Once a metric name holds maxSeriesPerMetric series, new tag combinations are folded into the name's overflow series,
+ *  tagged __overflow__=true, and counted, rather than allocated.  Overflows count distinct tag combinations, exactly up
+ *  to MAX_REJECTED per metric name, approximately past that (the set of rejected combinations is then reset).
+ * */
+final class CardinalityLimiter {
+    static final TagSet OVERFLOW_TAGS = TagSet.of("__overflow__", "true");
+    static final CardinalityLimiter NONE = new CardinalityLimiter(0);
+    static final int MAX_REJECTED = 4096;
+
+    private final int maxSeriesPerMetric;
+    private final Map<String,Metric> metrics = new ConcurrentHashMap<>();
+
+    CardinalityLimiter(int maxSeriesPerMetric) {
+        this.maxSeriesPerMetric = maxSeriesPerMetric;
+    }
+
+    /** Returns the series for key, creating it with factory (under the map's lock) if needed.
+     *  Once key's metric is at the limit, the metric's overflow series is returned (and created) instead. */
+    <T> T getOrCreate(Map<MetricKey,T> series, MetricKey key, Function<MetricKey,? extends T> factory) {
+        T s = series.get(key);
+        if (s != null) {
+            return s;
+        }
+        MetricKey admitted = admit(key);
+        if (admitted != key) {
+            s = series.get(admitted);
+            if (s != null) {
+                return s;
+            }
+        }
+        synchronized (series) {
+            s = series.get(admitted);
+            if (s == null) {
+                s = factory.apply(admitted);
+                series.put(admitted, s);
+            }
+            else if (admitted == key) {
+                // another thread created it first
+                release(key);
+            }
+        }
+        return s;
+    }
+
+    /** As getOrCreate, for series that cannot share an overflow series (gauges, whose value comes from their callback).
+     * @return the series for key, null (nothing is created) once key's metric is at the limit */
+    <T> T getIfAdmitted(Map<MetricKey,T> series, MetricKey key, Function<MetricKey,? extends T> factory) {
+        T s = series.get(key);
+        if (s != null) {
+            return s;
+        }
+        if (admit(key) != key) {
+            return null;
+        }
+        synchronized (series) {
+            s = series.get(key);
+            if (s == null) {
+                s = factory.apply(key);
+                series.put(key, s);
+            }
+            else {
+                release(key);
+            }
+        }
+        return s;
+    }
+
+    /** @return key if a new series may be created for it, otherwise the overflow key of its metric */
+    MetricKey admit(MetricKey key) {
+        if (maxSeriesPerMetric <= 0 || isOverflow(key)) {
+            return key;
+        }
+        Metric m = metrics.computeIfAbsent(key.getName(), Metric::new);
+        while (true) {
+            int n = m.series.get();
+            if (n >= maxSeriesPerMetric) {
+                m.reject(key);
+                return m.overflowKey;
+            }
+            if (m.series.compareAndSet(n, n + 1)) {
+                return key;
+            }
+        }
+    }
+
+    /** a series admitted for key has been dropped (or never created) */
+    void release(MetricKey key) {
+        if (maxSeriesPerMetric <= 0 || isOverflow(key)) {
+            return;
+        }
+        Metric m = metrics.get(key.getName());
+        if (m != null) {
+            m.series.decrementAndGet();
+            // rejected combinations may now be admitted, and are counted again if they overflow again
+            m.rejected.clear();
+        }
+    }
+
+    static boolean isOverflow(MetricKey key) {
+        return key.getTags() == OVERFLOW_TAGS;
+    }
+
+    int getMaxSeriesPerMetric() {
+        return maxSeriesPerMetric;
+    }
+
+    /** @return metric name -> distinct new tag combinations folded into its overflow series */
+    Map<String,Long> getOverflows() {
+        Map<String,Long> overflows = new HashMap<>();
+        for (Map.Entry<String,Metric> e : metrics.entrySet()) {
+            long n = e.getValue().overflows.sum();
+            if (n > 0) {
+                overflows.put(e.getKey(), n);
+            }
+        }
+        return Collections.unmodifiableMap(overflows);
+    }
+
+    private static final class Metric {
+        final AtomicInteger series = new AtomicInteger();
+        final LongAdder overflows = new LongAdder();
+        final Set<MetricKey> rejected = ConcurrentHashMap.newKeySet();
+        final MetricKey overflowKey;
+
+        Metric(String name) {
+            overflowKey = new MetricKey(name, OVERFLOW_TAGS);
+        }
+
+        // folded keys are never in the series map, so each of their lookups is rejected again
+        void reject(MetricKey key) {
+            if (rejected.size() >= MAX_REJECTED) {
+                rejected.clear();
+            }
+            if (rejected.add(key)) {
+                overflows.increment();
+            }
+        }
+    }
+}
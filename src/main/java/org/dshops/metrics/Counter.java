@@ -5,29 +5,84 @@ import java.util.Map;
 import java.util.concurrent.atomic.LongAdder;
 
 public class Counter extends MetricBase {
+    /** How a counter reports.
+     *  EVENT      - an event is posted on every update (default).
+     *  DELTA      - updates are accumulated, the count since the last report is posted once per interval.
+     *  CUMULATIVE - updates are accumulated, the running total is posted once per interval.
+     * */
+    public enum ReportMode {
+        EVENT,
+        DELTA,
+        CUMULATIVE
+    }
+
     private final LongAdder adder = new LongAdder();
+    private final ReportMode mode;
+    private final long intervalMillis;      // report interval of DELTA/CUMULATIVE counters, 0 for EVENT
+    private volatile TagSet eventTags;      // registry tags + the counter's tags, merged on first post
+    volatile boolean removed;               // removed from the registry, handles re-resolve (see CounterHandle)
 
     public Counter(String name, MetricRegistry registry) {
-        super(name, registry, null);
+        this(name, registry, null, ReportMode.EVENT, 0);
     }
 
     public Counter(String name, MetricRegistry registry, Map<String,String> tags) {
+        this(name, registry, tags, ReportMode.EVENT, 0);
+    }
+
+    Counter(String name, MetricRegistry registry, Map<String,String> tags, ReportMode mode, long intervalMillis) {
         super(name, registry, tags);
+        this.mode = mode;
+        this.intervalMillis = intervalMillis;
     }
 
     public void increment() {
         adder.increment();
-        registry.postEvent(name, System.currentTimeMillis(), adder.longValue()); // This 'may not be exact'
+        if (mode == ReportMode.EVENT) {
+            post(adder.longValue()); // This 'may not be exact'
+        }
     }
 
     public void decrement() {
         adder.decrement();
-        registry.postEvent(name, System.currentTimeMillis(), adder.longValue()); // This 'may not be exact'
+        if (mode == ReportMode.EVENT) {
+            post(adder.longValue()); // This 'may not be exact'
+        }
     }
 
     public void add(long x) {
         adder.add(x);
-        registry.postEvent(name, System.currentTimeMillis(), adder.longValue()); // This 'may not be exact'
+        if (mode == ReportMode.EVENT) {
+            post(adder.longValue()); // This 'may not be exact'
+        }
+    }
+
+    public ReportMode getReportMode() {
+        return mode;
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    long addAndGet(long x) {
+        adder.add(x);
+        return adder.longValue();
+    }
+
+    /** posts an event with the counter's value, tagged with the registry tags and the counter's own tags */
+    void post(long value) {
+        TagSet t = eventTags;
+        if (t == null) {
+            t = registry.resolveTags(tags);
+            eventTags = t;
+        }
+        registry.postEvent(name, System.currentTimeMillis(), t, value);
+    }
+
+    /** the value reported once per interval by DELTA/CUMULATIVE counters */
+    long sample() {
+        return mode == ReportMode.DELTA ? adder.sumThenReset() : adder.sum();
     }
 
     public static class Builder {
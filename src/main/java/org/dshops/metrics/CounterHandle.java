@@ -0,0 +1,43 @@
+package org.dshops.metrics;
+
+import java.util.Map;
+
+/** A pre-resolved Counter, see MetricRegistry.counterHandle(..).
+ *  The counter is looked up once, after which updates go directly to the counter (until it is removed from the registry,
+ *  as EVENT counters are when the last listener is removed).  Events are posted as Counter posts them, so updates via the
+ *  handle and via the counter report the same series.
+ * */
+public final class CounterHandle {
+    private final String name;
+    private final Map<String,String> tags;
+    private final MetricRegistry registry;
+    private volatile Counter counter;
+
+    CounterHandle(Counter counter, String name, Map<String,String> tags, MetricRegistry registry) {
+        this.counter = counter;
+        this.name = name;
+        this.tags = tags;
+        this.registry = registry;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    public void add(long x) {
+        counter().add(x);
+    }
+
+    private Counter counter() {
+        Counter c = counter;
+        if (c.removed) {
+            c = registry.counter(name, tags);
+            counter = c;
+        }
+        return c;
+    }
+}
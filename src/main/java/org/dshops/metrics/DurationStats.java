@@ -0,0 +1,41 @@
+package org.dshops.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Count/total/max of recorded durations (nanos), for the registry's self instrumentation, see MetricRegistry.getStats().
+ *  Hot paths only time a sample of their calls, see sampled().
+ * */
+final class DurationStats {
+    // 1 in 64 calls is timed
+    private static final int SAMPLE_MASK = 63;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    /** @return true if the caller should time this call, no shared state is touched */
+    static boolean sampled() {
+        return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0;
+    }
+
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long meanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    long maxNanos() {
+        return maxNanos.get();
+    }
+}
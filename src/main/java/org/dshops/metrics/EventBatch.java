@@ -0,0 +1,39 @@
+package org.dshops.metrics;
+
+import java.util.Arrays;
+
+/** A re-usable, growable batch of events, filled by gauges and dispatched with MetricRegistry.dispatchBatch. */
+final class EventBatch {
+    private EventImpl[] events;
+    private int size;
+
+    EventBatch(int capacity) {
+        events = new EventImpl[capacity];
+    }
+
+    void add(EventImpl e) {
+        if (size == events.length) {
+            events = Arrays.copyOf(events, size * 2);
+        }
+        events[size++] = e;
+    }
+
+    int size() {
+        return size;
+    }
+
+    EventImpl[] events() {
+        return events;
+    }
+
+    /** drops the events added after the first size */
+    void truncate(int size) {
+        Arrays.fill(events, size, this.size, null);
+        this.size = size;
+    }
+
+    void clear() {
+        Arrays.fill(events, 0, size, null);
+        size = 0;
+    }
+}
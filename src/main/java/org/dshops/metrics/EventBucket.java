@@ -1,8 +1,9 @@
 package org.dshops.metrics;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /** EventBuckets represents n number of events, by default when eventBuckets
  *  are emitted to the metric store, they will be 100 events.
@@ -20,6 +21,7 @@ import java.util.concurrent.ConcurrentHashMap;
  * */
 public class EventBucket extends MetricBase {
     private static Map<MetricKey,EventPercentileInfo> percentilesInfos = new ConcurrentHashMap<>();
+    private static final SeriesEviction<EventPercentileInfo> eviction = new SeriesEviction<>(percentilesInfos);
 	private static int[] percentilesToReport = {};
 	private static int buffer = 100;
 
@@ -28,16 +30,22 @@ public class EventBucket extends MetricBase {
 	public static final int STAT_STD = 4;
 	public static final int STAT_AVE = 8;
 	private static int stat_funcs = 0;
+	// time-windowed mode, enabled when windowInSeconds > 0
+	private static int windowInSeconds = 0;
+	private static ScheduledFuture<?> windowTask;
 
 	public static void initBucketDataToReport(int sampleSize, int[] percentiles) {
 	    initBucketDataToReport(sampleSize, percentiles, 0);
 	}
 
 	public static void initBucketDataToReport(int sampleSize, int[] percentiles, int STAT_FUNCTIONS) {
-	    stat_funcs = STAT_FUNCTIONS;
         if (!percentilesInfos.isEmpty()) {
             throw new RuntimeException("percentiles must be set prior to using a PercentileTimer!");
         }
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("sampleSize must be > 0");
+        }
+        stat_funcs = STAT_FUNCTIONS;
         buffer = sampleSize;
         percentilesToReport = percentiles;
 
@@ -52,6 +60,60 @@ public class EventBucket extends MetricBase {
         }
     }
 
+	/**
+	 * Switches EventBuckets to the time-windowed mode, buckets are reported every windowInSeconds,
+	 * regardless of the number of events collected.  The sampleSize (see initBucketDataToReport) then
+	 * becomes the size of a bounded reservoir used for percentiles, every event is kept below sampleSize events
+	 * per window.  count/min/max/ave/std are computed over every event in the window.
+	 * @param windowInSeconds report interval, 0 to disable (report each time sampleSize events are collected)
+	 * */
+	public static synchronized void initReportingWindow(int windowInSeconds) {
+	    if (!percentilesInfos.isEmpty()) {
+	        throw new RuntimeException("reporting window must be set prior to using an EventBucket!");
+	    }
+	    if (windowInSeconds < 0) {
+	        throw new IllegalArgumentException("windowInSeconds must be >= 0");
+	    }
+	    if (windowTask != null) {
+	        windowTask.cancel(false);
+	        windowTask = null;
+	    }
+	    EventBucket.windowInSeconds = windowInSeconds;
+	    if (windowInSeconds > 0) {
+	        windowTask = MetricExecutors.scheduler().scheduleAtFixedRate(EventBucket::flushAll,
+	                                                                          windowInSeconds,
+	                                                                          windowInSeconds,
+	                                                                          TimeUnit.SECONDS);
+	    }
+	}
+
+	/**
+	 * Enables eviction of EventBucket series (name + tags), a series not updated for idleSeconds is dropped,
+	 * and if more than maxSeries series exist, the least recently updated ones are dropped (checked periodically).
+	 * Samples collected by an evicted series are reported before it is dropped.
+	 * @param idleSeconds idle time before a series is evicted, 0 to disable
+	 * @param maxSeries max number of series kept, 0 for no limit
+	 * */
+	public static void setSeriesEviction(int idleSeconds, int maxSeries) {
+	    eviction.configure(idleSeconds, maxSeries);
+	}
+
+	/** @return the number of EventBucket series currently held */
+	public static int seriesCount() {
+	    return percentilesInfos.size();
+	}
+
+	/** @return the number of EventBucket series evicted so far */
+	public static long evictedSeriesCount() {
+	    return eviction.evictedCount();
+	}
+
+	private static void flushAll() {
+	    for (EventPercentileInfo p : percentilesInfos.values()) {
+	        MetricExecutors.flush(p::flush);
+	    }
+	}
+
 	/**
 	 * Construct an EventBucket, where percentiles is the list of percentiles to report (i.e. 90, 99, etc)
 	 * */
@@ -67,31 +129,40 @@ public class EventBucket extends MetricBase {
         collectData(n);
     }
 
+    public void update(long n) {
+        getInfo(registry, new MetricKey(name, tags), true).update(n);
+    }
+
+    public void update(double n) {
+        getInfo(registry, new MetricKey(name, tags), false).update(n);
+    }
+
     public void update(Number n, String... customTags) {
         update(n, Util.buildTags(customTags));
     }
 
     public void update(Number n, Map<String,String> customTags) {
-        if (this.tags == null) {
-            this.tags = new HashMap<>();
-        }
-        this.tags.putAll(customTags);
+        this.tags = this.tags.with(customTags);
         collectData(n);
     }
 
+    @SuppressWarnings("unchecked")
     private void collectData(Number value) {
-        MetricKey key = new MetricKey(name, tags);
+        getInfo(registry, new MetricKey(name, tags), EventPercentileInfo.isIntegral(value)).update(value);
+    }
+
+    /** get/create the bucket for key, integral determines the bucket type (on creation). */
+    static EventPercentileInfo getInfo(MetricRegistry registry, MetricKey key, boolean integral) {
     	EventPercentileInfo p = percentilesInfos.get(key);
-    	if (p == null) {
-    	    synchronized (percentilesInfos) {
-                p = percentilesInfos.get(key);
-                if (p == null) {
-                    p = new EventPercentileInfo(registry, value, buffer, percentilesToReport, stat_funcs, key);
-                    percentilesInfos.put(key, p);
-                }
-            }
+    	if (p != null) {
+    	    return p;
     	}
-    	p.update(value);
+    	CardinalityLimiter limiter = registry != null ? registry.cardinalityLimiter() : CardinalityLimiter.NONE;
+    	return limiter.getOrCreate(percentilesInfos, key, k -> {
+    	    EventPercentileInfo info = new EventPercentileInfo(registry, integral, buffer, percentilesToReport, stat_funcs, windowInSeconds > 0, k);
+    	    info.limiter = limiter;
+    	    return info;
+    	});
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,34 @@
+package org.dshops.metrics;
+
+/** A pre-resolved EventBucket, see MetricRegistry.eventBucketHandle(..).
+ *  The bucket is looked up on first update, after which updates go directly to the bucket (until it is evicted).
+ *  A handle should be updated with a consistent value type (long or double).
+ * */
+@SuppressWarnings("rawtypes")
+public final class EventBucketHandle {
+    private final MetricKey key;
+    private final MetricRegistry registry;
+    private volatile EventPercentileInfo info;
+
+    EventBucketHandle(MetricKey key, MetricRegistry registry) {
+        this.key = key;
+        this.registry = registry;
+    }
+
+    public void update(long value) {
+        info(true).update(value);
+    }
+
+    public void update(double value) {
+        info(false).update(value);
+    }
+
+    private EventPercentileInfo info(boolean integral) {
+        EventPercentileInfo p = info;
+        if (p == null || p.evicted) {
+            p = EventBucket.getInfo(registry, key, integral);
+            info = p;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,39 @@
+package org.dshops.metrics;
+
+import java.util.Map;
+
+/** A pre-resolved event, see MetricRegistry.eventHandle(..).
+ *  The event name, and merged registry/event tags are computed once, so each call only
+ *  allocates the event posted to the listeners.
+ * */
+public final class EventHandle {
+    private final String name;
+    private final Map<String,String> tags;
+    private final MetricRegistry registry;
+
+    EventHandle(String name, Map<String,String> tags, MetricRegistry registry) {
+        this.name = name;
+        this.tags = tags;
+        this.registry = registry;
+    }
+
+    public void event() {
+        event(1);
+    }
+
+    public void event(long value) {
+        registry.dispatchEvent(new LongEvent(name, tags, System.currentTimeMillis(), value));
+    }
+
+    public void event(double value) {
+        registry.dispatchEvent(new DoubleEvent(name, tags, System.currentTimeMillis(), value));
+    }
+
+    public void eventAtTs(long ts, long value) {
+        registry.dispatchEvent(new LongEvent(name, tags, ts, value));
+    }
+
+    public void eventAtTs(long ts, double value) {
+        registry.dispatchEvent(new DoubleEvent(name, tags, ts, value));
+    }
+}
@@ -1,23 +1,22 @@
 package org.dshops.metrics;
 
-import java.util.Collections;
 import java.util.Map;
 
 public abstract class EventImpl implements Event {
     private final String name;                // event name
-    protected Map<String,String> tags;        // tags associated to event
+    protected final TagSet tags;              // tags associated to event (interned, shared between events)
     protected final long time;                // time of event
     private MetricKey metricKey;
 
     EventImpl(final String name, final Map<String,String> tags, final long time) {
         this.name = name;
-        this.tags = tags;
+        this.tags = TagSet.of(tags);
         this.time = time;
     }
 
     @Override
     public Map<String,String> getTags() {
-        return Collections.unmodifiableMap(tags);
+        return tags;
     }
 
     @Override
@@ -29,13 +28,13 @@ public abstract class EventImpl implements Event {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(time).append(" ").append(getName()).append(" ");
-        if (tags != null) {
+        sb.append(time).append(" ").append(getName());
+        if (tags != null && !tags.isEmpty()) {
+            char sep = ' ';
             for (Map.Entry<String,String> e : tags.entrySet()){
-                sb.append(e.getKey()).append("=").append(e.getValue());
-                sb.append(",");
+                sb.append(sep).append(e.getKey()).append("=").append(e.getValue());
+                sep = ',';
             }
-            sb.setLength(sb.length()-1);
         }
         return sb.toString();
     }
@@ -1,60 +1,209 @@
 package org.dshops.metrics;
 
-import java.lang.reflect.Array;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-public class EventPercentileInfo<T extends Number> {
-    T[] values;    
+/** Samples are appended lock free into per-thread stripes (see PercentileInfo), and reported
+ *  each time exactly 'buffer' samples have been merged.
+ *  In the time-windowed mode (see EventBucket.initReportingWindow) samples go to a bounded SampleReservoir
+ *  instead, and are reported by flush() once per window, min/max/ave/std/count then cover every sample in the window.
+ *
+ *  Samples are held in primitive long[] arrays, the buffer reported is re-used for the next buffer.
+ *  Whole number buckets store the value, floating point buckets store SampleReservoir.sortable(value),
+ *  so both sort numerically without boxing.
+ *  The bucket type (whole number or floating point) is decided by the first value the bucket is created with.
+ * */
+public class EventPercentileInfo<T extends Number> extends TrackedSeries {
+    private final AtomicReferenceArray<Stripe> stripes;
+    private final int stripeSize;
+    private final boolean integral;
+    // guarded by this
+    private long[] values;
+    private long[] spare;
     int valuesCollected;
     private final MetricRegistry registry;
     private final int statFuncs;
+    // time-windowed mode
+    private final SampleReservoir reservoir;
+    private final long[] windowValues;
 
-    private static ExecutorService threadPool = Executors.newFixedThreadPool(10, new ThreadFactory() {
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r);
-            t.setDaemon(true);
-            return t;
-        }
-    });
     private final int[] percentilesToReport;
-     
+
     private final MetricKey key;
 
     public EventPercentileInfo(MetricRegistry registry, Number type, int buffer, int[] percentilesToReport, int statFuncs, MetricKey key) {
+        this(registry, isIntegral(type), buffer, percentilesToReport, statFuncs, false, key);
+    }
+
+    EventPercentileInfo(MetricRegistry registry, boolean integral, int buffer, int[] percentilesToReport, int statFuncs, boolean windowed, MetricKey key) {
         this.registry = registry;
+        this.integral = integral;
         this.statFuncs = statFuncs;
-        values = (T[])Array.newInstance(type.getClass(), buffer);
         this.percentilesToReport = percentilesToReport;
         this.key = key;
+        if (windowed) {
+            reservoir = new SampleReservoir(buffer, !integral);
+            windowValues = new long[buffer];
+        }
+        else {
+            reservoir = null;
+            windowValues = null;
+        }
+        int stripeCount = Math.min(PercentileInfo.STRIPES, Integer.highestOneBit(buffer));
+        stripeSize = Math.max(1, buffer / stripeCount);
+        stripes = new AtomicReferenceArray<>(windowed ? 0 : stripeCount);
+        for (int i = 0; i < stripes.length(); i++) {
+            stripes.set(i, new Stripe(stripeSize));
+        }
+        values = windowed ? null : new long[buffer];
+    }
+
+    static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    boolean isIntegral() {
+        return integral;
     }
 
     public void update(T eventValue) {
-    	// @todo Many optmizations possible here...depending on what the user is emitting
-    	// we only need to store n-values if percentiles are being used. (technically only need to store sample - min(percentile))
-    	// can likely avoid sync only reporting count.
-	        synchronized (this) {
-	            values[valuesCollected] = eventValue;
-	            valuesCollected++;
-	            if (valuesCollected >= values.length) {
-	                T[] tmp = values;
-	                values =  (T[])Array.newInstance(values.getClass().getComponentType(), values.length);   //new values.getClass().get [values.length];
-	                valuesCollected = 0;
-	                threadPool.submit(() -> reportMetrics(tmp));
-	            }	        
-	    	}
-    }
-
-    public void reportMetrics(T[] dataValues) {
-        Arrays.sort(dataValues);
+        if (integral) {
+            record(eventValue.longValue());
+        }
+        else {
+            record(SampleReservoir.sortable(eventValue.doubleValue()));
+        }
+    }
+
+    public void update(long eventValue) {
+        record(integral ? eventValue : SampleReservoir.sortable(eventValue));
+    }
+
+    public void update(double eventValue) {
+        record(integral ? Math.round(eventValue) : SampleReservoir.sortable(eventValue));
+    }
+
+    private void record(long value) {
+        touch();
+        if (reservoir != null) {
+            reservoir.update(value);
+            return;
+        }
+        int idx = PercentileInfo.stripeIndex(stripes.length());
+        while (true) {
+            Stripe s = stripes.get(idx);
+            int slot = s.claimed.getAndIncrement();
+            if (slot < s.values.length) {
+                if (slot == s.values.length - 1) {
+                    stripes.compareAndSet(idx, s, new Stripe(stripeSize));
+                }
+                s.values[slot] = value;
+                if (s.committed.incrementAndGet() == s.values.length) {
+                    merge(s.values);
+                }
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void merge(long[] stripeValues) {
+        synchronized (this) {
+            int offset = 0;
+            while (offset < stripeValues.length) {
+                int len = Math.min(stripeValues.length - offset, values.length - valuesCollected);
+                System.arraycopy(stripeValues, offset, values, valuesCollected, len);
+                valuesCollected += len;
+                offset += len;
+                if (valuesCollected >= values.length) {
+                    long[] tmp = values;
+                    values = spare != null ? spare : new long[values.length];
+                    spare = null;
+                    valuesCollected = 0;
+                    MetricExecutors.flush(() -> reportMetrics(tmp));
+                }
+            }
+        }
+    }
+
+    /** Reports the current window (time-windowed mode only, buffered samples are reported once the buffer fills). */
+    void flush() {
+        if (reservoir == null) {
+            return;
+        }
+        synchronized (reservoir) {
+            int size = reservoir.drain(windowValues);
+            if (size == 0) {
+                return;
+            }
+            Arrays.sort(windowValues, 0, size);
+            long n = reservoir.count;
+            double mean = reservoir.sum / n;
+            double variance = n > 1 ? (reservoir.sumOfSquares - reservoir.sum * reservoir.sum / n) / (n - 1) : 0;
+            report(windowValues, size, n, reservoir.min, reservoir.max, mean, Math.sqrt(Math.max(0, variance)));
+        }
+    }
+
+    /** reports the samples merged so far plus those still in the stripes, the bucket is idle at this point. */
+    @Override
+    void flushPartial() {
+        if (reservoir != null) {
+            flush();
+            return;
+        }
+        long[] pending;
+        int n;
+        synchronized (this) {
+            pending = Arrays.copyOf(values, valuesCollected + stripes.length() * stripeSize);
+            n = valuesCollected;
+            for (int i = 0; i < stripes.length(); i++) {
+                Stripe s = stripes.get(i);
+                if (s.claimed.get() == 0) {
+                    continue;
+                }
+                // swapped first, so writers move to the fresh stripe, and never merge the retired one
+                while (!stripes.compareAndSet(i, s, new Stripe(stripeSize))) {
+                    s = stripes.get(i);
+                }
+                int written = s.retire();
+                System.arraycopy(s.values, 0, pending, n, written);
+                n += written;
+            }
+            valuesCollected = 0;
+        }
+        if (n > 0) {
+            reportValues(pending, n);
+        }
+    }
+
+    void reportMetrics(long[] dataValues) {
+        reportValues(dataValues, dataValues.length);
+        synchronized (this) {
+            spare = dataValues;
+        }
+    }
+
+    private void reportValues(long[] dataValues, int size) {
+        Arrays.sort(dataValues, 0, size);
+        // mean/std in a single pass (welford)
+        double mean = 0;
+        double m2 = 0;
+        for (int i = 0; i < size; i++) {
+            double x = toDouble(dataValues[i]);
+            double delta = x - mean;
+            mean += delta / (i + 1);
+            m2 += delta * (x - mean);
+        }
+        double std = size > 1 ? Math.sqrt(m2 / (size - 1)) : 0;
+        report(dataValues, size, size, dataValues[0], dataValues[size - 1], mean, std);
+    }
+
+    private void report(long[] sorted, int size, long count, long min, long max, double mean, double std) {
         long ts = System.currentTimeMillis();
         // percentiles
         for (int p : percentilesToReport) {
-            Number percentileValue = getPercentile(p, dataValues);
+            Number percentileValue = toNumber(sorted[(int)(PercentileInfo.percentileFraction(p) * size)]);
             if (registry != null) {
                 registry.postEvent(key.getName() + ".p"+p, ts, key.getTags(), percentileValue);
             }
@@ -62,74 +211,56 @@ public class EventPercentileInfo<T extends Number> {
                 System.out.println(key.getName()+ ".p" +p+"=="+ percentileValue);
             }
         }
-        // additional functions (@todo consider optimizing into 1 loop?)
+        if (registry == null) {
+            return;
+        }
         if ((statFuncs & EventBucket.STAT_MIN) == EventBucket.STAT_MIN) {
-            if (registry != null) {
-                registry.postEvent(key.getName() + ".min", ts, key.getTags(), dataValues[0]);
-            }
+            registry.postEvent(key.getName() + ".min", ts, key.getTags(), toNumber(min));
         }
         if ((statFuncs & EventBucket.STAT_MAX) == EventBucket.STAT_MAX) {
-            if (registry != null) {
-                registry.postEvent(key.getName() + ".max", ts, key.getTags(), dataValues[dataValues.length - 1]);
-            }
+            registry.postEvent(key.getName() + ".max", ts, key.getTags(), toNumber(max));
         }
-        double[] stdDevAndMean = null;
         if ((statFuncs & EventBucket.STAT_STD) == EventBucket.STAT_STD) {
-            if (registry != null) {
-                stdDevAndMean = getStdDevAndMean(dataValues);
-                registry.postEvent(key.getName() + ".std", ts, key.getTags(), stdDevAndMean[0]);
-                if ((statFuncs & EventBucket.STAT_AVE) == EventBucket.STAT_AVE) {
-                    registry.postEvent(key.getName() + ".ave", ts, key.getTags(), stdDevAndMean[1]);
-                }
-            }
+            registry.postEvent(key.getName() + ".std", ts, key.getTags(), std);
         }
-        if (stdDevAndMean == null && ((statFuncs & EventBucket.STAT_AVE) == EventBucket.STAT_AVE)) {
-            if (registry != null) {
-                double mean = getMean(dataValues);
-                registry.postEvent(key.getName() + ".ave", ts, key.getTags(), mean);
-            }
+        if ((statFuncs & EventBucket.STAT_AVE) == EventBucket.STAT_AVE) {
+            registry.postEvent(key.getName() + ".ave", ts, key.getTags(), mean);
         }
-        registry.postEvent(key.getName() + ".count", ts, key.getTags(), dataValues.length);
+        registry.postEvent(key.getName() + ".count", ts, key.getTags(), count);
     }
-    private double getMean(final T[] dataValues) {
-        double sum = 0.0;
-        for (int i = 0; i < dataValues.length; i++) {
-            sum += dataValues[i].doubleValue();
-        }
-        return sum / dataValues.length;
+
+    private double toDouble(long value) {
+        return integral ? value : SampleReservoir.fromSortable(value);
     }
-    
-    private double[] getStdDevAndMean(final T[] dataValues) {
-        double meanSum = dataValues[0].doubleValue();
-        double stdDevSum = 0.0;
-        double sum = dataValues[0].doubleValue();
-        for (int i = 1; i< dataValues.length; i++) {
-            double stepSum = dataValues[i].doubleValue() - meanSum;
-            double stepMean = ((i - 1)) * stepSum / i;
-            meanSum += stepMean;
-            stdDevSum +=stepMean * stepSum;
-            sum+=dataValues[i].doubleValue();
+
+    private Number toNumber(long value) {
+        if (integral) {
+            return value;
         }
-        double[] results = new double[2];
-        results[0] = Math.sqrt(stdDevSum / (dataValues.length - 1));
-        results[1] = sum / dataValues.length;        
-        return results;        
+        return SampleReservoir.fromSortable(value);
     }
 
-    private Number getPercentile(int percent, T[] dataValues) {
-        float percentF = 0;
-        if (percent <=99)
-            percentF = (float)percent/100;
-        else if (percent<=999) {
-            percentF = (float)percent/1000;
-        }
-        else if (percent<=9999) {
-            percentF = (float)percent/10000;
+    // a fixed size chunk of samples, slots are claimed then committed by writers.
+    private static final class Stripe {
+        final long[] values;
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicInteger committed = new AtomicInteger();
+
+        Stripe(int size) {
+            values = new long[size];
         }
-        else if (percent<=99999) {
-            percentF = (float)percent/100000;
+
+        // closes the stripe to writers, and waits for those holding a slot to write it
+        // @return the number of samples in the stripe, 0 if it is full (its last writer merges it)
+        int retire() {
+            int n = claimed.getAndSet(values.length);
+            if (n >= values.length) {
+                return 0;
+            }
+            while (committed.get() < n) {
+                Thread.yield();
+            }
+            return n;
         }
-        int index = (int)(percentF * dataValues.length);
-        return dataValues[index];
     }
-}
\ No newline at end of file
+}
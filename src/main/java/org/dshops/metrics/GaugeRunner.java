@@ -1,6 +1,7 @@
 package org.dshops.metrics;
 
-class GaugeRunner<T extends Number> implements Runnable {
+/** Samples one gauge (or meter, or interval aggregated counter) for the GaugeScheduler. */
+class GaugeRunner<T extends Number> extends ScheduledGauge {
     private final Gauge<T> gauge;
     private final MetricRegistry registry;
     private final MetricKey key;
@@ -22,21 +23,21 @@ class GaugeRunner<T extends Number> implements Runnable {
         this.reportIntervalInMillis = reportIntervalInSeconds * 1000;
     }
 
+    /** max gauges only report once per report interval */
     @Override
-    public void run() {
+    void sample(long ts, EventBatch out) {
         if (this.reportIntervalInMillis == 0) {
-            this.registry.postEvent(this.key.getName(), System.currentTimeMillis(), this.key.getTags(), gauge.getValue());
+            out.add(registry.newEvent(key.getName(), ts, key.getTags(), gauge.getValue()));
             return;
         }
-        
-        if (max == null || gauge.getValue().doubleValue() > max.doubleValue()) {
-            max = gauge.getValue();
-        }        
-        long ts = System.currentTimeMillis();
+        T value = gauge.getValue();
+        if (max == null || value.doubleValue() > max.doubleValue()) {
+            max = value;
+        }
         if (ts - lastReportTime > this.reportIntervalInMillis) {
-            this.registry.postEvent(this.key.getName(), System.currentTimeMillis(), this.key.getTags(), max);
+            out.add(registry.newEvent(key.getName(), ts, key.getTags(), max));
             max = null;
-            lastReportTime = System.currentTimeMillis();
+            lastReportTime = ts;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,281 @@
+package org.dshops.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Drives a registry's gauges, meters and interval aggregated counters, on the shared TimerWheel.
+ *
+ *  Gauges sharing an interval form one group, and the wheel holds a single timer per group rather than one task per gauge.
+ *  When a group is due, every gauge in it is sampled in one pass on the shared worker pool (see MetricExecutors),
+ *  using one shared timestamp, and the resulting events are dispatched as a single batch.
+ *  Group deadlines are multiples of their interval, so groups with related intervals fire together.  A group still
+ *  running (or queued) when it is next due skips that round (counted), rather than queueing up behind itself.
+ *
+ *  Each gauge sample has a budget: samples run inline, in the group's pass, and are timed.  A gauge exceeding the budget
+ *  has that sample dropped (counted as an overrun), and is moved to the slow gauges.  A gauge that does not return at
+ *  all is caught by a watchdog timer (every budget), once its sample outlasts the group's interval: the gauge is moved
+ *  to the slow gauges, and the rest of its group to a new group, so the group keeps reporting while the stuck sample
+ *  holds its worker thread.  A gauge whose sample
+ *  is still running is skipped (counted) until it returns.  Slow gauges (see
+ *  MetricRegistry.scheduleSlowGauge) are each sampled on their own task, on the slow gauge pool (virtual threads when
+ *  requested and available), and skip a round while their previous sample is still running.
+ * */
+final class GaugeScheduler {
+    private final MetricRegistry registry;
+    private final long budgetNanos;
+    private final boolean virtualThreads;
+    private final Map<Long,Group> groups = new ConcurrentHashMap<>();
+    private final Map<Long,Group> slowGroups = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+
+    /** @param budgetMillis max time a (non slow) gauge sample may take, 0 for no limit
+     *  @param virtualThreads run slow gauges on virtual threads, if the JVM supports them */
+    GaugeScheduler(MetricRegistry registry, long budgetMillis, boolean virtualThreads) {
+        this.registry = registry;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.virtualThreads = virtualThreads;
+        if (budgetNanos > 0) {
+            MetricExecutors.timerWheel().add(new Watchdog(Math.max(TimerWheel.TICK_MILLIS, budgetMillis)));
+        }
+    }
+
+    /** adds task to the group sampled every intervalMillis, it is first sampled on the group's next run. */
+    void schedule(ScheduledGauge task, long intervalMillis) {
+        schedule(task, intervalMillis, false);
+    }
+
+    /** @param slow true to sample the task on its own, on the slow gauge pool */
+    void schedule(ScheduledGauge task, long intervalMillis, boolean slow) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("interval must be > 0");
+        }
+        // under the map's lock, so a group being replaced (see abandon) does not miss the task
+        (slow ? slowGroups : groups).compute(intervalMillis, (interval, g) -> {
+            if (g == null) {
+                g = new Group(interval, slow);
+                MetricExecutors.timerWheel().add(g);
+            }
+            g.tasks.add(task);
+            return g;
+        });
+    }
+
+    // g has been sampling task for longer than the budget: task goes to the slow gauges, the rest of g to a new group,
+    // g leaves the wheel, and its pass (once the sample returns) is discarded
+    private void abandon(Group g, ScheduledGauge task) {
+        overruns.increment();
+        groups.computeIfPresent(g.interval, (interval, current) -> {
+            if (current != g) {
+                return current;
+            }
+            Group ng = new Group(interval, false);
+            for (ScheduledGauge t : g.tasks) {
+                if (t != task) {
+                    ng.tasks.add(t);
+                }
+            }
+            MetricExecutors.timerWheel().add(ng);
+            return ng;
+        });
+        schedule(task, g.interval, true);
+    }
+
+    /** stops sampling, the groups leave the wheel on their next deadline */
+    void stop() {
+        running = false;
+    }
+
+    /** @return the number of gauge samples dropped, because they exceeded their budget */
+    long overruns() {
+        return overruns.sum();
+    }
+
+    /** @return the number of group runs skipped, because the previous run of the group had not completed, or the pool rejected it */
+    long skippedRuns() {
+        return skipped.sum();
+    }
+
+    /** @return the number of gauge samples that failed (threw) */
+    long errors() {
+        return errors.sum();
+    }
+
+    private void fire(Group g) {
+        if (g.tasks.isEmpty()) {
+            return;
+        }
+        if (g.slow) {
+            fireSlow(g);
+            return;
+        }
+        if (!g.running.compareAndSet(false, true)) {
+            skipped.increment();
+            return;
+        }
+        if (!MetricExecutors.execute(g)) {
+            g.running.set(false);
+            skipped.increment();
+        }
+    }
+
+    // each slow gauge is sampled on its own task, sharing the group's timestamp
+    private void fireSlow(Group g) {
+        long ts = System.currentTimeMillis();
+        for (ScheduledGauge task : g.tasks) {
+            if (!task.running.compareAndSet(false, true)) {
+                skipped.increment();
+                continue;
+            }
+            try {
+                MetricExecutors.slow(virtualThreads).execute(() -> {
+                    try {
+                        EventBatch out = new EventBatch(1);
+                        task.sample(ts, out);
+                        if (out.size() > 0) {
+                            registry.dispatchBatch(out.events(), out.size());
+                        }
+                    }
+                    catch (Exception ex) {
+                        errors.increment();
+                    }
+                    finally {
+                        task.running.set(false);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ree) {
+                task.running.set(false);
+                skipped.increment();
+            }
+        }
+    }
+
+    private final class Group extends TimerWheel.Timer implements Runnable {
+        final boolean slow;
+        final List<ScheduledGauge> tasks = new CopyOnWriteArrayList<>();
+        final AtomicBoolean running = new AtomicBoolean();
+        // the task being sampled, and since when, cleared by the watchdog when it abandons the group
+        final AtomicReference<ScheduledGauge> current = new AtomicReference<>();
+        volatile long sampleStart;
+        volatile boolean abandoned;
+        private final EventBatch batch = new EventBatch(16);
+
+        Group(long interval, boolean slow) {
+            super(interval);
+            this.slow = slow;
+        }
+
+        @Override
+        boolean fire() {
+            if (!GaugeScheduler.this.running || abandoned) {
+                return false;
+            }
+            GaugeScheduler.this.fire(this);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long ts = System.currentTimeMillis();
+                for (ScheduledGauge task : tasks) {
+                    if (budgetNanos > 0) {
+                        if (!sampleWithinBudget(task, ts)) {
+                            // abandoned by the watchdog, its tasks are sampled by another group now
+                            batch.clear();
+                            return;
+                        }
+                        continue;
+                    }
+                    int n = batch.size();
+                    try {
+                        task.sample(ts, batch);
+                    }
+                    catch (Exception ex) {
+                        errors.increment();
+                        batch.truncate(n);
+                    }
+                }
+                if (batch.size() > 0) {
+                    registry.dispatchBatch(batch.events(), batch.size());
+                }
+                batch.clear();
+            }
+            finally {
+                // a sample that threw an Error, the watchdog must not abandon an idle group
+                current.set(null);
+                running.set(false);
+            }
+        }
+
+        // samples task inline, a sample exceeding the budget is dropped, and the task moved to the slow gauges
+        // @return false if the watchdog abandoned this group while task was sampled
+        private boolean sampleWithinBudget(ScheduledGauge task, long ts) {
+            if (!task.running.compareAndSet(false, true)) {
+                // a sample abandoned by the watchdog has not returned yet
+                skipped.increment();
+                return true;
+            }
+            int n = batch.size();
+            long start = System.nanoTime();
+            sampleStart = start;
+            current.set(task);
+            try {
+                task.sample(ts, batch);
+            }
+            catch (Exception ex) {
+                errors.increment();
+                batch.truncate(n);
+            }
+            finally {
+                task.running.set(false);
+            }
+            if (!current.compareAndSet(task, null)) {
+                return false;
+            }
+            if (System.nanoTime() - start > budgetNanos) {
+                overruns.increment();
+                batch.truncate(n);
+                tasks.remove(task);
+                schedule(task, interval, true);
+            }
+            return true;
+        }
+    }
+
+    /** Catches samples that do not return: every budget, a group sampling the same task for longer than its interval
+     *  (and the budget) is abandoned (see abandon), its pass is not waited for.  Samples returning sooner are handled by
+     *  the group itself. */
+    private final class Watchdog extends TimerWheel.Timer {
+        Watchdog(long intervalMillis) {
+            super(intervalMillis);
+        }
+
+        @Override
+        boolean fire() {
+            if (!running) {
+                return false;
+            }
+            long now = System.nanoTime();
+            for (Group g : groups.values()) {
+                ScheduledGauge task = g.current.get();
+                long stuck = Math.max(budgetNanos, TimeUnit.MILLISECONDS.toNanos(g.interval));
+                if (task != null && now - g.sampleStart > stuck && g.current.compareAndSet(task, null)) {
+                    g.abandoned = true;
+                    abandon(g, task);
+                }
+            }
+            return true;
+        }
+    }
+}
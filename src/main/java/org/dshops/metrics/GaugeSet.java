@@ -0,0 +1,9 @@
+package org.dshops.metrics;
+
+/** A set of related gauges collected in one pass, see MetricRegistry.scheduleGaugeSet(..).
+ *  Each value recorded is reported as name.key.gauge, all sharing the same timestamp and tags.
+ * */
+@FunctionalInterface
+public interface GaugeSet {
+    void collect(GaugeSink sink);
+}
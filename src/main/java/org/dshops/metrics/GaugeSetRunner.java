@@ -0,0 +1,53 @@
+package org.dshops.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Samples a GaugeSet for the GaugeScheduler, the tags are merged once, and event names are resolved once per key. */
+final class GaugeSetRunner extends ScheduledGauge implements GaugeSink {
+    private final String name;
+    private final TagSet tags;
+    private final GaugeSet gaugeSet;
+    // key -> event name, sampling thread only
+    private final Map<String,String> names = new HashMap<>();
+    // current pass
+    private long ts;
+    private EventBatch out;
+
+    GaugeSetRunner(MetricKey key, GaugeSet gaugeSet, MetricRegistry registry) {
+        this.name = registry.getPrefix() + key.getName() + ".";
+        this.tags = registry.resolveTags(key.getTags());
+        this.gaugeSet = gaugeSet;
+    }
+
+    @Override
+    void sample(long ts, EventBatch out) {
+        this.ts = ts;
+        this.out = out;
+        try {
+            gaugeSet.collect(this);
+        }
+        finally {
+            this.out = null;
+        }
+    }
+
+    @Override
+    public void record(String key, long value) {
+        out.add(new LongEvent(eventName(key), tags, ts, value));
+    }
+
+    @Override
+    public void record(String key, double value) {
+        out.add(new DoubleEvent(eventName(key), tags, ts, value));
+    }
+
+    private String eventName(String key) {
+        String n = names.get(key);
+        if (n == null) {
+            n = name + key + ".gauge";
+            names.put(key, n);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,8 @@
+package org.dshops.metrics;
+
+/** Receives the values of a GaugeSet, primitives are not boxed. */
+public interface GaugeSink {
+    void record(String key, long value);
+
+    void record(String key, double value);
+}
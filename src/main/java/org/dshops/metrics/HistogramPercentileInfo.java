@@ -0,0 +1,91 @@
+package org.dshops.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** PercentileTimer engine backed by a LogLinearHistogram, rather than a buffer of raw samples.
+ *  Memory per series is fixed by the precision/highest value requested, not by the sample size,
+ *  so high percentiles (p99.9, p99.99) can be reported without a 10k sample buffer per series.
+ *
+ *  Percentiles are reported every 'sampleSize' samples (or once per window in the time-windowed mode),
+ *  a reported value is the highest value equivalent to the bucket the percentile falls in.
+ * */
+class HistogramPercentileInfo extends PercentileRecorder {
+    private final LogLinearHistogram histogram;
+    private final MetricRegistry registry;
+    private final MetricKey key;
+    private final int sampleSize;
+    private final boolean windowed;
+    private final int[] percentilesToReport;
+    private final AtomicLong recorded = new AtomicLong();
+    private final Runnable reportTask = this::reportPercentiles;
+    // guarded by this, re-used between reports
+    private final long[] snapshot;
+    private final long[] ranks;
+
+    HistogramPercentileInfo(MetricRegistry registry, int sampleSize, int[] percentilesToReport, int significantDigits, long highestTrackableValue, boolean windowed, MetricKey key) {
+        this.registry = registry;
+        this.sampleSize = sampleSize;
+        this.windowed = windowed;
+        this.key = key;
+        this.percentilesToReport = Arrays.copyOf(percentilesToReport, percentilesToReport.length);
+        histogram = new LogLinearHistogram(significantDigits, highestTrackableValue);
+        snapshot = new long[histogram.length()];
+        ranks = new long[percentilesToReport.length];
+    }
+
+    @Override
+    public void update(long value) {
+        touch();
+        histogram.record(value);
+        if (!windowed && recorded.incrementAndGet() % sampleSize == 0) {
+            MetricExecutors.flush(reportTask);
+        }
+    }
+
+    @Override
+    public void flush() {
+        reportPercentiles();
+    }
+
+    @Override
+    void flushPartial() {
+        reportPercentiles();
+    }
+
+    void reportPercentiles() {
+        synchronized (this) {
+            long total = histogram.drainTo(snapshot);
+            if (total == 0) {
+                return;
+            }
+            for (int i = 0; i < percentilesToReport.length; i++) {
+                ranks[i] = Math.max(1, (long)Math.ceil(PercentileInfo.percentileFraction(percentilesToReport[i]) * total));
+            }
+            long ts = System.currentTimeMillis();
+            for (int i = 0; i < percentilesToReport.length; i++) {
+                long percentileValue = valueAtRank(ranks[i]);
+                if (registry != null) {
+                    registry.postEvent(key.getName() + ".p" + percentilesToReport[i], ts, key.getTags(), percentileValue);
+                }
+                else {
+                    System.out.println(key.getName()+ ".p" + percentilesToReport[i] + "==" + percentileValue);
+                }
+            }
+            if (registry != null) {
+                registry.postEvent(key.getName() + ".count", ts, key.getTags(), total);
+            }
+        }
+    }
+
+    private long valueAtRank(long rank) {
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return histogram.highestEquivalentValue(i);
+            }
+        }
+        return histogram.highestEquivalentValue(snapshot.length - 1);
+    }
+}
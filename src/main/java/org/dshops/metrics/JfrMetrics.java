@@ -0,0 +1,16 @@
+package org.dshops.metrics;
+
+/** JVM metrics streamed from JDK Flight Recorder, see JvmMetrics.addJfrMetrics(..).
+ *  JFR event streaming requires Java 14+, this (Java 8) class only reports it as unsupported, the streaming
+ *  implementation is packaged under META-INF/versions/17 of the (multi-release) jar, see src/main/java17.
+ * */
+final class JfrMetrics {
+
+    private JfrMetrics() {
+    }
+
+    /** @return the running stream, close it to stop reporting, or null if JFR streaming is not supported */
+    static AutoCloseable start(MetricRegistry registry, int intervalInSeconds) {
+        return null;
+    }
+}
@@ -9,17 +9,31 @@ import com.sun.management.OperatingSystemMXBean;
 
 public class JvmMetrics {
 
+    /** Reports jvm.processCPU, systemCPU, heapUsed, nonHeapUsed, threads and uptime (minutes) as one gauge set,
+     *  read in a single pass each interval. */
     public static void addMetrics(MetricRegistry registry, int intervalInSeconds) {
         final OperatingSystemMXBean osBean = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
-        registry.scheduleGauge("jvm.processCPU", intervalInSeconds, () -> {return osBean.getProcessCpuLoad();});
-        registry.scheduleGauge("jvm.systemCPU", intervalInSeconds, () -> {return osBean.getSystemCpuLoad();});
-        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
-        registry.scheduleGauge("jvm.heapUsed",intervalInSeconds, () -> {return memoryBean.getHeapMemoryUsage().getUsed();});
-        registry.scheduleGauge("jvm.nonHeapUsed",intervalInSeconds, () -> {return memoryBean.getNonHeapMemoryUsage().getUsed();});
+        final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final RuntimeMXBean rbean = ManagementFactory.getRuntimeMXBean();
+        registry.scheduleGaugeSet("jvm", intervalInSeconds, (GaugeSink sink) -> {
+            sink.record("processCPU", osBean.getProcessCpuLoad());
+            sink.record("systemCPU", osBean.getSystemCpuLoad());
+            sink.record("heapUsed", memoryBean.getHeapMemoryUsage().getUsed());
+            sink.record("nonHeapUsed", memoryBean.getNonHeapMemoryUsage().getUsed());
+            sink.record("threads", (long) threadBean.getThreadCount());
+            sink.record("uptime", rbean.getUptime() / 60_000);
+        });
+    }
 
-        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
-        registry.scheduleGauge("jvm.threads",intervalInSeconds, () -> {return threadBean.getThreadCount();});
-        RuntimeMXBean rbean = ManagementFactory.getRuntimeMXBean();
-        registry.scheduleGauge("jvm.uptime",intervalInSeconds, () -> {return rbean.getUptime()/60_000;});
+    /** Streams GC pauses, allocation, safepoint, monitor contention and JIT compilation metrics from JDK Flight Recorder,
+     *  see JfrMetrics for the metrics reported.  Requires Java 17+ (the jar is multi-release), JFR is not polled, events
+     *  are consumed as they are emitted, counters are reported every intervalInSeconds.
+     * @param registry the registry to report to
+     * @param intervalInSeconds report interval of the aggregated values
+     * @return the running stream, close it to stop reporting, or null if JFR streaming is not supported by this JVM
+     * */
+    public static AutoCloseable addJfrMetrics(MetricRegistry registry, int intervalInSeconds) {
+        return JfrMetrics.start(registry, intervalInSeconds);
     }
 }
@@ -0,0 +1,97 @@
+package org.dshops.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** HDR style log-linear histogram, of fixed size.
+ *
+ *  Values are grouped in power of 2 buckets, each split in linear sub-buckets, so the error of any
+ *  recorded value is bounded by the number of significant digits requested.  Values above
+ *  highestTrackableValue are counted in the last sub-bucket.
+ *  Recording is a single atomic increment, and never allocates.
+ * */
+class LogLinearHistogram {
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param significantDigits 1-5, number of significant decimal digits to maintain
+     * @param highestTrackableValue the highest value to track, must be >= 2
+     * */
+    LogLinearHistogram(int significantDigits, long highestTrackableValue) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 5");
+        }
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue must be >= 2");
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        long largestSingleUnitResolution = 2 * (long)Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(largestSingleUnitResolution - 1);
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketMask = subBucketCount - 1;
+
+        // number of power of 2 buckets needed to cover highestTrackableValue
+        long smallestUntrackableValue = ((long)subBucketCount);
+        int bucketCount = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        counts = new AtomicLongArray((bucketCount + 1) * subBucketHalfCount);
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        else if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        counts.incrementAndGet(countsIndex(value));
+    }
+
+    /** Moves the current counts into snapshot (resetting them), values recorded concurrently
+     *  are either part of this snapshot or the next one.
+     *  @return the total count drained */
+    long drainTo(long[] snapshot) {
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            long c = counts.get(i) == 0 ? 0 : counts.getAndSet(i, 0);
+            snapshot[i] = c;
+            total += c;
+        }
+        return total;
+    }
+
+    int length() {
+        return counts.length();
+    }
+
+    private int countsIndex(long value) {
+        int pow2Ceiling = 64 - Long.numberOfLeadingZeros(value | subBucketMask);
+        int bucketIndex = pow2Ceiling - (subBucketHalfCountMagnitude + 1);
+        int subBucketIndex = (int)(value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    /** @return the highest value that would be counted at index */
+    long highestEquivalentValue(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        long lowest = ((long)subBucketIndex) << bucketIndex;
+        return Math.min(lowest + (1L << bucketIndex) - 1, highestTrackableValue);
+    }
+}
@@ -1,17 +1,16 @@
 package org.dshops.metrics;
 
-import java.util.Collections;
 import java.util.Map;
 
 abstract class MetricBase implements Metric {
     protected final String name;
-    protected Map<String,String> tags;
+    protected TagSet tags;
     protected final MetricRegistry registry;
 
     MetricBase(String name, MetricRegistry registry, Map<String,String> tags) {
     	this.name = name;
     	this.registry = registry;
-        this.tags = tags;
+        this.tags = TagSet.of(tags);
     }
 
     MetricRegistry getMetricRegistry() {
@@ -20,6 +19,6 @@ abstract class MetricBase implements Metric {
 
     @Override
     public Map<String,String> getTags() {
-        return Collections.unmodifiableMap(tags);
+        return tags;
     }
 }
@@ -0,0 +1,288 @@
+package org.dshops.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** The threads of the library, shared by every MetricRegistry in the process, each started on first use:
+ *  <ul>
+ *  <li>worker: reports percentiles/buckets, flushes windows and evicted series, samples gauge groups.
+ *      A bounded pool (default 2 to 4 threads, by cpus) with a bounded queue (default 10,000 tasks), tasks past the queue
+ *      are dropped and counted (getRejectedTasks()), or run by the submitting thread (RejectionPolicy.CALLER_RUNS).</li>
+ *  <li>scheduler: one thread, running the periodic window flushes and eviction sweeps.</li>
+ *  <li>timer wheel: one thread, driving every registry's gauges (see GaugeScheduler), it exits while no gauges are scheduled.</li>
+ *  <li>slow gauge pool: up to 16 threads, idle threads exit after 60s, or virtual threads, see
+ *      MetricRegistry.Builder.withVirtualThreadsForSlowGauges.</li>
+ *  </ul>
+ *  The worker pool is configured with a Builder, before (or while) metrics are in use:
+ *  <pre>
+ *      new MetricExecutors.Builder().withWorkerThreads(2)
+ *                                   .withQueueCapacity(1000)
+ *                                   .withRejectionPolicy(RejectionPolicy.DROP)
+ *                                   .install();
+ *  </pre>
+ *  Installing replaces the worker pool, tasks already queued on the previous pool still complete.
+ * */
+public final class MetricExecutors {
+    public enum RejectionPolicy {
+        /** drop the task, counted in getRejectedTasks() */
+        DROP,
+        /** run the task on the submitting thread, unless it is the timer wheel's (gauge groups are then dropped) */
+        CALLER_RUNS
+    }
+
+    static final int DEFAULT_WORKER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    static final int SLOW_POOL_THREADS = 16;
+
+    private static final LongAdder rejected = new LongAdder();
+    private static final DurationStats flushStats = new DurationStats();
+    private static volatile Builder config = new Builder();
+    private static volatile ExecutorService worker;
+    private static volatile ScheduledExecutorService scheduler;
+    private static volatile TimerWheel timerWheel;
+    private static volatile ExecutorService slowPool;
+    private static volatile ExecutorService virtualPool;
+
+    private MetricExecutors() {
+    }
+
+    public static final class Builder {
+        private int workerThreads = DEFAULT_WORKER_THREADS;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.DROP;
+        private boolean virtualThreads;
+        private ExecutorService executor;
+
+        /** @param threads max worker threads, idle threads exit after 60s */
+        public Builder withWorkerThreads(int threads) {
+            if (threads <= 0)
+                throw new IllegalArgumentException("threads must be > 0");
+            this.workerThreads = threads;
+            return this;
+        }
+
+        /** @param capacity max tasks queued for the workers */
+        public Builder withQueueCapacity(int capacity) {
+            if (capacity <= 0)
+                throw new IllegalArgumentException("capacity must be > 0");
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /** @param policy what happens to a task once the queue is full (default DROP) */
+        public Builder withRejectionPolicy(RejectionPolicy policy) {
+            if (policy == null)
+                throw new IllegalArgumentException("policy cannot be null");
+            this.rejectionPolicy = policy;
+            return this;
+        }
+
+        /** Runs the workers on virtual threads, when the JVM supports them (21+), thread count and queue stay bounded. */
+        public Builder withVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /** Runs the worker tasks on the provided executor, rather than a pool of the library's.
+         *  Its queueing and rejection apply (tasks it rejects are counted), it is never shut down by the library. */
+        public Builder withExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /** makes this the configuration of the worker pool, replacing the current pool if started */
+        public void install() {
+            ExecutorService previous;
+            Builder previousConfig;
+            synchronized (MetricExecutors.class) {
+                previous = worker;
+                previousConfig = config;
+                config = this;
+                worker = null;
+            }
+            if (previous != null && previousConfig.executor == null) {
+                previous.shutdown();
+            }
+        }
+    }
+
+    /** Runs task on the worker pool.
+     *  @return false if the task was rejected (queue full, or pool shut down), and will not run */
+    static boolean execute(Runnable task) {
+        try {
+            worker().execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException ree) {
+            if (config.executor != null) {
+                rejected.increment();
+            }
+            return false;
+        }
+    }
+
+    /** Runs a percentile/bucket report or flush on the worker pool, timed, see flushStats(). */
+    static boolean flush(Runnable task) {
+        return execute(() -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            }
+            finally {
+                flushStats.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    static DurationStats flushStats() {
+        return flushStats;
+    }
+
+    static Executor worker() {
+        ExecutorService w = worker;
+        if (w == null) {
+            synchronized (MetricExecutors.class) {
+                w = worker;
+                if (w == null) {
+                    w = newWorker(config);
+                    worker = w;
+                }
+            }
+        }
+        return w;
+    }
+
+    private static ExecutorService newWorker(Builder c) {
+        if (c.executor != null) {
+            return c.executor;
+        }
+        ThreadFactory factory = c.virtualThreads ? virtualThreadFactory() : null;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(c.workerThreads, c.workerThreads,
+                                                         60, TimeUnit.SECONDS,
+                                                         new ArrayBlockingQueue<>(c.queueCapacity),
+                                                         factory != null ? factory : new DaemonThreadFactory(),
+                                                         new Rejection(c.rejectionPolicy));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /** single thread scheduler for periodic (window flush, eviction sweep) tasks, the tasks hand any heavy work to the workers */
+    static ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            synchronized (MetricExecutors.class) {
+                if (scheduler == null) {
+                    ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory());
+                    s.setRemoveOnCancelPolicy(true);
+                    scheduler = s;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    static TimerWheel timerWheel() {
+        if (timerWheel == null) {
+            synchronized (MetricExecutors.class) {
+                if (timerWheel == null) {
+                    timerWheel = new TimerWheel();
+                }
+            }
+        }
+        return timerWheel;
+    }
+
+    private static boolean onTimerWheel() {
+        TimerWheel w = timerWheel;
+        return w != null && w.isWheelThread();
+    }
+
+    /** @param virtualThreads use virtual threads if the JVM supports them
+     *  @return the slow gauge executor, which throws RejectedExecutionException when all its threads are busy */
+    static Executor slow(boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService v = virtualPool;
+            if (v == null) {
+                synchronized (MetricExecutors.class) {
+                    if (virtualPool == null) {
+                        ThreadFactory factory = virtualThreadFactory();
+                        // slow gauges never run concurrently with themselves, so the pool is bounded by the gauges
+                        virtualPool = factory != null ? Executors.newCachedThreadPool(factory) : slowPool();
+                    }
+                    v = virtualPool;
+                }
+            }
+            return v;
+        }
+        return slowPool();
+    }
+
+    private static ExecutorService slowPool() {
+        if (slowPool == null) {
+            synchronized (MetricExecutors.class) {
+                if (slowPool == null) {
+                    slowPool = new ThreadPoolExecutor(0, SLOW_POOL_THREADS,
+                                                      60, TimeUnit.SECONDS,
+                                                      new SynchronousQueue<>(),
+                                                      new DaemonThreadFactory());
+                }
+            }
+        }
+        return slowPool;
+    }
+
+    /** virtual thread factory (jdk 21+), null if not supported by this jvm */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "metric-raw-v", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** @return the number of worker tasks dropped, because the queue was full */
+    public static long getRejectedTasks() {
+        return rejected.sum();
+    }
+
+    /** @return the number of worker tasks queued (0 for an executor provided with Builder.withExecutor) */
+    public static int getQueuedTasks() {
+        ExecutorService w = worker;
+        return w instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) w).getQueue().size() : 0;
+    }
+
+    private static final class Rejection implements RejectedExecutionHandler {
+        private final RejectionPolicy policy;
+
+        Rejection(RejectionPolicy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+            // the timer wheel drives every registry's gauges, it must never run one inline
+            if (policy == RejectionPolicy.CALLER_RUNS && !pool.isShutdown() && !onTimerWheel()) {
+                r.run();
+                return;
+            }
+            rejected.increment();
+            throw new RejectedExecutionException("metric-raw worker queue full");
+        }
+    }
+}
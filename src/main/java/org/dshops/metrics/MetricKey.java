@@ -3,31 +3,32 @@ package org.dshops.metrics;
 import java.util.Map;
 
 // A Metrickey represents a unique hash for metric+tagset
-// obviously if the tagset changes afterwards it will not reflected.
+// tags are held as an interned TagSet, so the hash is computed once, and tag comparison is (typically) an identity check.
 //consideration: if remove counters from the system
 //and 'allow' users to create duplicate gauges, this and their internal
 //maps can be removed.
 public class MetricKey {
  private final String name;
- private final Map<String,String> tags;
+ private final TagSet tags;
+ private final int hash;
 
  public MetricKey(String name) {
-     this.name = name;
-     this.tags = null;
+     this(name, TagSet.EMPTY);
  }
 
  public MetricKey(String name, Map<String,String> tags) {
      this.name = name;
-     this.tags = tags;
+     this.tags = TagSet.of(tags);
+     final int prime = 31;
+     int result = 1;
+     result = prime * result + ((name == null) ? 0 : name.hashCode());
+     result = prime * result + this.tags.hashCode();
+     this.hash = result;
  }
 
  @Override
  public int hashCode() {
-     final int prime = 31;
-     int result = 1;
-     result = prime * result + ((getName() == null) ? 0 : getName().hashCode());
-     result = prime * result + ((getTags() == null) ? 0 : getTags().hashCode());
-     return result;
+     return hash;
  }
 
  @Override
@@ -39,24 +40,21 @@ public class MetricKey {
      if (getClass() != obj.getClass())
          return false;
      MetricKey other = (MetricKey) obj;
+     if (hash != other.hash)
+         return false;
      if (getName() == null) {
          if (other.getName() != null)
              return false;
      } else if (!getName().equals(other.getName()))
          return false;
-     if (getTags() == null) {
-         if (other.getTags() != null)
-             return false;
-     } else if (!getTags().equals(other.getTags()))
-         return false;
-     return true;
+     return tags.equals(other.tags);
  }
 
-    public Map<String,String> getTags() {
+    public TagSet getTags() {
         return tags;
     }
 
     public String getName() {
         return name;
     }
-}
\ No newline at end of file
+}
@@ -1,36 +1,66 @@
 package org.dshops.metrics;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 @SuppressWarnings("rawtypes")
 public class MetricRegistry {
+    private static final Logger log = LoggerFactory.getLogger(MetricRegistry.class);
 	private final String prefix;
-    private final Map<String,String> registryTags;
+    private final TagSet registryTags;
+    // customTags -> customTags + registryTags, keys are interned TagSets, so lookups are cheap
+    private final Map<TagSet,TagSet> mergedTags = new ConcurrentHashMap<>();
     private final Map<MetricKey, Counter> counters = new ConcurrentHashMap<>();
     
 	private final Map<MetricKey, Gauge> gauges = new ConcurrentHashMap<>();
     private final Map<MetricKey, Gauge> meters = new ConcurrentHashMap<>();
+    private final Map<MetricKey, GaugeSet> gaugeSets = new ConcurrentHashMap<>();
     private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+    // sampled onEvent latency per listener, see getStats()
+    private final Map<EventListener, DurationStats> dispatchStats = new ConcurrentHashMap<>();
 
-    private ScheduledThreadPoolExecutor pools = null; 
+    private volatile GaugeScheduler gaugeScheduler;
     // registries stored by prefix
     private static final Map<String, List<MetricRegistry>> registries = new ConcurrentHashMap<>();
     private boolean useStartTimeAsEventTime = false;
-    private boolean enableMilliIndexing = false;
+    private final TimeUnit timerUnit;
+    // sub-millisecond indexing, created once an EventIndexingListener is added
+    private volatile MilliIndexer milliIndexer;
     private static boolean enableRegistryCache = true;
+    // async dispatch, enabled when asyncRingSize > 0
+    private int asyncRingSize = 0;
+    private WaitStrategy asyncWaitStrategy;
+    private int asyncConsumers;
+    private volatile RingBufferDispatcher dispatcher;
+    private CardinalityLimiter limiter = CardinalityLimiter.NONE;
+    private long gaugeBudgetMillis = DEFAULT_GAUGE_BUDGET_MILLIS;
+    private boolean slowGaugeVirtualThreads = false;
+    static final long DEFAULT_GAUGE_BUDGET_MILLIS = 500;
 
     public static class Builder {
         private Map<String,String> tags = new HashMap<>();
         private final String prefix;
         private boolean startTimeStrategy = false;
+        private TimeUnit timerUnit = TimeUnit.MILLISECONDS;
+        private int asyncRingSize = 0;
+        private WaitStrategy asyncWaitStrategy;
+        private int asyncConsumers;
+        private int maxSeriesPerMetric = 0;
+        private long gaugeBudgetMillis = DEFAULT_GAUGE_BUDGET_MILLIS;
+        private boolean slowGaugeVirtualThreads = false;
 
         /** @param namespace - Namespace
          *  @param application  - Application name
@@ -66,6 +96,73 @@ public class MetricRegistry {
             return this;
         }
 
+        /** Unit timer durations are reported in, default is milliseconds.
+         *  Timers always measure with System.nanoTime(), use MICROSECONDS or NANOSECONDS
+         *  to see sub-millisecond latencies.
+         *  @param unit the reporting unit for timers and percentileTimers
+         *  @return this builder
+         *  */
+        public Builder withTimerUnit(TimeUnit unit) {
+            if (unit == null)
+                throw new IllegalArgumentException("unit cannot be null");
+            timerUnit = unit;
+            return this;
+        }
+
+        /** Events are published to a preallocated ring buffer, and dispatched to the listeners
+         *  by dedicated consumer threads, rather than on the calling thread.
+         *  When the ring is full events are dropped, see MetricRegistry.getDroppedEvents().
+         *  @param ringSize number of slots, rounded up to a power of 2
+         *  @param waitStrategy how idle consumer threads wait for events
+         *  @param consumerThreads number of consumer threads, each listener is pinned to one of them (round robin) when added
+         *  @return this builder
+         *  */
+        public Builder withAsyncDispatch(int ringSize, WaitStrategy waitStrategy, int consumerThreads) {
+            if (ringSize < 2 || consumerThreads < 1 || waitStrategy == null)
+                throw new IllegalArgumentException("ringSize must be >= 2, consumerThreads >= 1, and waitStrategy cannot be null");
+            asyncRingSize = ringSize;
+            asyncWaitStrategy = waitStrategy;
+            asyncConsumers = consumerThreads;
+            return this;
+        }
+
+        public Builder withAsyncDispatch(int ringSize) {
+            return withAsyncDispatch(ringSize, WaitStrategy.BLOCKING, 1);
+        }
+
+        /** Caps the number of tag combinations (series) each counter, gauge, meter, percentileTimer and eventBucket
+         *  name may have.  Past the cap new tag combinations are reported under a single series tagged __overflow__=true,
+         *  and counted once per distinct combination (see MetricRegistry.getCardinalityOverflows()).  Meters past the cap
+         *  share the name's overflow meter, gauges and gauge sets past the cap are not scheduled (a warning is logged).
+         *  Series removed with the listeners (see removeEventListener) return their slot.
+         * @param maxSeriesPerMetric the cap, 0 for no limit (default)
+         * */
+        public Builder withMaxSeriesPerMetric(int maxSeriesPerMetric) {
+            if (maxSeriesPerMetric < 0)
+                throw new IllegalArgumentException("maxSeriesPerMetric must be >= 0");
+            this.maxSeriesPerMetric = maxSeriesPerMetric;
+            return this;
+        }
+
+        /** Max time a gauge sample may take (default 500ms), a gauge exceeding it has the sample dropped (counted,
+         *  see getGaugeOverruns()), and is moved to the slow gauge pool, so it no longer delays the other gauges.
+         * @param budgetMillis the budget, 0 for no limit
+         * */
+        public Builder withGaugeBudget(long budgetMillis) {
+            if (budgetMillis < 0)
+                throw new IllegalArgumentException("budgetMillis must be >= 0");
+            this.gaugeBudgetMillis = budgetMillis;
+            return this;
+        }
+
+        /** Runs slow gauges (see scheduleSlowGauge) on virtual threads, when the JVM supports them (21+),
+         *  otherwise on a bounded pool of platform threads.
+         * */
+        public Builder withVirtualThreadsForSlowGauges(boolean virtualThreads) {
+            this.slowGaugeVirtualThreads = virtualThreads;
+            return this;
+        }
+
         public Builder addTag(String tag, String value) {
             tags.put(tag, value);
             return this;
@@ -90,17 +187,25 @@ public class MetricRegistry {
                 }   
                 MetricRegistry mr = null; 
                 if (tags.size() > 0)
-                    mr = new MetricRegistry(prefix, startTimeStrategy, tags);
+                    mr = new MetricRegistry(prefix, startTimeStrategy, timerUnit, tags);
                 else
-                    mr = new MetricRegistry(prefix, startTimeStrategy);
+                    mr = new MetricRegistry(prefix, startTimeStrategy, timerUnit);
+                mr.asyncRingSize = asyncRingSize;
+                mr.asyncWaitStrategy = asyncWaitStrategy;
+                mr.asyncConsumers = asyncConsumers;
+                if (maxSeriesPerMetric > 0)
+                    mr.limiter = new CardinalityLimiter(maxSeriesPerMetric);
+                mr.gaugeBudgetMillis = gaugeBudgetMillis;
+                mr.slowGaugeVirtualThreads = slowGaugeVirtualThreads;
                 return mr;
             }
         }
     }
 
-    MetricRegistry(String prefix, boolean startTimeStrategy, Map<String,String> tags) {
+    MetricRegistry(String prefix, boolean startTimeStrategy, TimeUnit timerUnit, Map<String,String> tags) {
     	this.prefix = prefix;
-        this.registryTags = tags;
+        this.registryTags = TagSet.of(tags);
+        this.timerUnit = timerUnit;
         if (enableRegistryCache) {
             List<MetricRegistry> lst = null;
             if (registries.containsKey(prefix)) {
@@ -115,9 +220,10 @@ public class MetricRegistry {
         useStartTimeAsEventTime = startTimeStrategy;
     }
 
-    MetricRegistry(String prefix, boolean startTimeStrategy) {
+    MetricRegistry(String prefix, boolean startTimeStrategy, TimeUnit timerUnit) {
     	this.prefix = prefix;
-        this.registryTags = null;
+        this.registryTags = TagSet.EMPTY;
+        this.timerUnit = timerUnit;
         useStartTimeAsEventTime = startTimeStrategy;
         if (enableRegistryCache) {
             List<MetricRegistry> lst = null;
@@ -189,7 +295,12 @@ public class MetricRegistry {
     }
 
     public Map<String,String> getTags() {
-        return Collections.unmodifiableMap(registryTags);
+        return registryTags;
+    }
+
+    /** @return the unit timer durations are reported in */
+    public TimeUnit getTimerUnit() {
+        return timerUnit;
     }
 
     public Timer getTimer(String name) {
@@ -224,6 +335,38 @@ public class MetricRegistry {
         return new PercentileTimer(name+".timer", this, tags, useStartTimeAsEventTime).start();
     }
 
+    /** Resolves a raw timer once, for timing without allocating a Timer per measurement:
+     * <pre>
+     *     long t = handle.start();
+     *     ...
+     *     handle.stop(t);
+     * </pre>
+     * @param name the name of the timer
+     * @param tags tag/value pairs
+     * @return the handle, safe to share between threads
+     * */
+    public TimerHandle timerHandle(String name, String... tags) {
+        return timerHandle(name, Util.buildTags(tags));
+    }
+
+    public TimerHandle timerHandle(String name, Map<String,String> tags) {
+        return new TimerHandle(prefix + name + ".timer", resolveTags(tags), null, useStartTimeAsEventTime, this);
+    }
+
+    /** Resolves a percentileTimer once, see timerHandle(..), stop(token) records into the same
+     *  percentiles as percentileTimer(name, tags).
+     * @param name the name of the timer
+     * @param tags tag/value pairs
+     * @return the handle, safe to share between threads
+     * */
+    public TimerHandle percentileTimerHandle(String name, String... tags) {
+        return percentileTimerHandle(name, Util.buildTags(tags));
+    }
+
+    public TimerHandle percentileTimerHandle(String name, Map<String,String> tags) {
+        return new TimerHandle(prefix + name + ".timer", null, new MetricKey(name + ".timer", tags), useStartTimeAsEventTime, this);
+    }
+
     /** Counters not recommended for real use, but may be
      * useful for testing/early integration. 
      * @param name the name of the counter
@@ -232,18 +375,11 @@ public class MetricRegistry {
     public Counter counter(String name) {
         name = name+".counter";
         MetricKey key = new MetricKey(name);
-        Counter c = getCounters().get(key);        
-        if (c == null) {
-            synchronized (getCounters()) {
-                c = getCounters().get(key);
-                if (c == null) {
-                    Counter tmp = new Counter(name, this);
-                    getCounters().put(key,tmp);
-                    return tmp;
-                }
-            }
+        Counter c = getCounters().get(key);
+        if (c != null) {
+            return c;
         }
-        return c;
+        return limiter.getOrCreate(getCounters(), key, k -> new Counter(k.getName(), this, k.getTags()));
     }
 
     public Counter counter(String name, String... tags) {
@@ -254,15 +390,84 @@ public class MetricRegistry {
         name = name+".counter";
     	MetricKey key = new MetricKey(name,tags);
     	Counter c = getCounters().get(key);
-        if (c == null){
-            synchronized (getCounters()) {
-                c = getCounters().get(key);
-                if (c == null) {
-                    Counter tmp = new Counter(name, this, tags);
-                    getCounters().put(new MetricKey(name, tags),tmp);
-                    return tmp;
-                }
-            }
+        if (c != null) {
+            return c;
+        }
+        return limiter.getOrCreate(getCounters(), key, k -> new Counter(k.getName(), this, k.getTags()));
+    }
+
+    /** Resolves the counter once, subsequent increment/decrement/add calls on the handle
+     *  skip the name/tag/key lookup, and only allocate the event posted.
+     * @param name the name of the counter
+     * @param tags tag/value pairs
+     * @return the handle, safe to share between threads
+     * */
+    public CounterHandle counterHandle(String name, String... tags) {
+        return counterHandle(name, Util.buildTags(tags));
+    }
+
+    public CounterHandle counterHandle(String name, Map<String,String> tags) {
+        return new CounterHandle(counter(name, tags), name, tags, this);
+    }
+
+    /** Resolves the event name and tags once, see event(name, value, tags).
+     * @param name the name of the event
+     * @param tags tag/value pairs
+     * @return the handle, safe to share between threads
+     * */
+    public EventHandle eventHandle(String name, String... tags) {
+        return eventHandle(name, Util.buildTags(tags));
+    }
+
+    public EventHandle eventHandle(String name, Map<String,String> tags) {
+        return new EventHandle(prefix + name + ".event", resolveTags(tags), this);
+    }
+
+    /** Resolves the eventBucket once, updates through the handle go straight to the bucket, see eventBucket(name, value, tags).
+     * @param name the name of the eventBucket
+     * @param tags tag/value pairs
+     * @return the handle, safe to share between threads
+     * */
+    public EventBucketHandle eventBucketHandle(String name, String... tags) {
+        return eventBucketHandle(name, Util.buildTags(tags));
+    }
+
+    public EventBucketHandle eventBucketHandle(String name, Map<String,String> tags) {
+        return new EventBucketHandle(new MetricKey(name, tags), this);
+    }
+
+    /** An interval aggregated counter, updates only accumulate (no event per update), and one event is posted
+     *  per interval on the registry's scheduler, making the counter usable on hot paths.
+     * @param name the name of the counter
+     * @param mode DELTA to report the count since the previous report, CUMULATIVE to report the running total
+     * @param intervalInSeconds report interval
+     * @param tags tag/value pairs
+     * @return the counter
+     * @throws IllegalArgumentException if the counter exists with another mode or interval
+     * */
+    public Counter counter(String name, Counter.ReportMode mode, int intervalInSeconds, String... tags) {
+        return counter(name, mode, intervalInSeconds, Util.buildTags(tags));
+    }
+
+    public Counter counter(String name, Counter.ReportMode mode, int intervalInSeconds, Map<String,String> tags) {
+        if (mode == Counter.ReportMode.EVENT) {
+            return counter(name, tags);
+        }
+        name = name+".counter";
+        MetricKey key = new MetricKey(name,tags);
+        long intervalMillis = TimeUnit.SECONDS.toMillis(intervalInSeconds);
+        Counter c = getCounters().get(key);
+        if (c == null) {
+            c = limiter.getOrCreate(getCounters(), key, k -> {
+                Counter tmp = new Counter(k.getName(), this, k.getTags(), mode, intervalMillis);
+                gaugeScheduler().schedule(new GaugeRunner<>(k, tmp::sample, this), intervalMillis);
+                return tmp;
+            });
+        }
+        // the overflow series (see Builder.withMaxSeriesPerMetric) is shared, so only an exact match is checked
+        if (getCounters().get(key) == c && (c.getReportMode() != mode || c.getIntervalMillis() != intervalMillis)) {
+            throw new IllegalArgumentException("counter " + name + tags + " already exists as " + c.getReportMode()
+                                               + (c.getIntervalMillis() > 0 ? " every " + c.getIntervalMillis() + "ms" : ""));
         }
         return c;
     }
@@ -292,8 +497,7 @@ public class MetricRegistry {
     }
 
     public void alert(String alertName, long value, Map<String,String> customTags) {
-        Map<String, String> ctags = mergeTags(customTags);
-        ctags.put("alertName", alertName);
+        TagSet ctags = mergeTags(customTags).with("alertName", alertName);
         dispatchEvent(new LongEvent(prefix + "alerts", ctags, System.currentTimeMillis(), value));
     }
 
@@ -307,8 +511,7 @@ public class MetricRegistry {
     }
 
     public void alert(String alertName, double value, Map<String,String> customTags) {
-        Map<String, String> ctags = mergeTags(customTags);
-        ctags.put("alertName", alertName);
+        TagSet ctags = mergeTags(customTags).with("alertName", alertName);
         dispatchEvent(new DoubleEvent(prefix + "alerts", ctags, System.currentTimeMillis(), value));
     }
 
@@ -343,12 +546,12 @@ public class MetricRegistry {
     }
 
     public void event(String name, long value, Map<String,String> customTags) {
-        Map<String, String> ctags = mergeTags(customTags);
+        TagSet ctags = mergeTags(customTags);
         dispatchEvent(new LongEvent(prefix + name + ".event", ctags, System.currentTimeMillis(),value));
     }
 
     public void event(String name, double value, Map<String,String> customTags) {
-        Map<String, String> ctags = mergeTags(customTags);
+        TagSet ctags = mergeTags(customTags);
         dispatchEvent(new DoubleEvent(prefix + name + ".event", ctags, System.currentTimeMillis(),value));
     }
 
@@ -375,16 +578,16 @@ public class MetricRegistry {
         eventAtTs(name, ts, value, Util.buildTags(customTags));
     }
     public void eventAtTs(String name, long ts, double value, Map<String,String> customTags) {
-        Map<String, String> ctags = mergeTags(customTags);
+        TagSet ctags = mergeTags(customTags);
         dispatchEvent(new DoubleEvent(prefix + name + ".event", ctags, ts, value));
     }
     public void eventAtTs(String name, long ts, long value, Map<String,String> customTags) {
-        Map<String, String> ctags = mergeTags(customTags);
+        TagSet ctags = mergeTags(customTags);
         dispatchEvent(new DoubleEvent(prefix + name + ".event", ctags, ts, value));
     }
 
     public void eventBucket(String name) {
-        eventBucket(name, 1);
+        eventBucket(name, 1l);
     }
 
     public void eventBucket(String name, String...customTags) {
@@ -423,17 +626,91 @@ public class MetricRegistry {
     public void scheduleGauge(String name, int intervalInSeconds, Gauge<? extends Number> gauge, Map<String,String> tags) {
         name = name + ".gauge";
         MetricKey key = new MetricKey(name, tags);
-        if (!gauges.containsKey(key)) {
-            synchronized (gauge) {
-                if (!gauges.containsKey(key)) {
-                    gauges.put(key, gauge);
-                    pools.scheduleWithFixedDelay(new GaugeRunner<>(key, gauge, this),
-                                                 0,
-                                                 intervalInSeconds,
-                                                 TimeUnit.SECONDS);
+        Object scheduled = limiter.getIfAdmitted(gauges, key, k -> {
+            gaugeScheduler().schedule(new GaugeRunner<>(k, gauge, this), TimeUnit.SECONDS.toMillis(intervalInSeconds));
+            return gauge;
+        });
+        warnIfRejected(key, scheduled);
+    }
+
+    /** Schedules a gauge expected to be slow (I/O, locks..), it is sampled on its own task on the slow gauge pool,
+     *  rather than with the other gauges sharing its interval, and skips a report while a previous sample is still running.
+     *  No budget applies to slow gauges.
+     * @param name name of gauge
+     * @param intervalInSeconds report interval
+     * @param gauge the gauge to invoke
+     * @param tags tag/value pairs
+     * */
+    public void scheduleSlowGauge(String name, int intervalInSeconds, Gauge<? extends Number> gauge, String...tags) {
+        scheduleSlowGauge(name, intervalInSeconds, gauge, Util.buildTags(tags));
+    }
+
+    public void scheduleSlowGauge(String name, int intervalInSeconds, Gauge<? extends Number> gauge, Map<String,String> tags) {
+        name = name + ".gauge";
+        MetricKey key = new MetricKey(name, tags);
+        Object scheduled = limiter.getIfAdmitted(gauges, key, k -> {
+            gaugeScheduler().schedule(new GaugeRunner<>(k, gauge, this), TimeUnit.SECONDS.toMillis(intervalInSeconds), true);
+            return gauge;
+        });
+        warnIfRejected(key, scheduled);
+    }
+
+    /** Schedules a set of related gauges collected in a single pass, e.g. several values read from one MXBean or pool.
+     *  Each value recorded to the sink is reported as name.key.gauge, all values of a pass share one timestamp,
+     *  and the tags are merged once, when the set is scheduled.
+     *  The set is sampled (and budgeted) as one gauge, with the other gauges sharing its interval.
+     * @param name name prefix of the gauges
+     * @param intervalInSeconds report interval
+     * @param gaugeSet records the values, invoked by one thread at a time
+     * @param tags tag/value pairs
+     * */
+    public void scheduleGaugeSet(String name, int intervalInSeconds, GaugeSet gaugeSet, String...tags) {
+        scheduleGaugeSet(name, intervalInSeconds, gaugeSet, Util.buildTags(tags));
+    }
+
+    public void scheduleGaugeSet(String name, int intervalInSeconds, GaugeSet gaugeSet, Map<String,String> tags) {
+        MetricKey key = new MetricKey(name, tags);
+        Object scheduled = limiter.getIfAdmitted(gaugeSets, key, k -> {
+            gaugeScheduler().schedule(new GaugeSetRunner(k, gaugeSet, this), TimeUnit.SECONDS.toMillis(intervalInSeconds));
+            return gaugeSet;
+        });
+        warnIfRejected(key, scheduled);
+    }
+
+    /** As scheduleGaugeSet(name, interval, GaugeSet, tags), reporting each entry of the map supplied, key -> value.
+     *  Double/Float values are reported as floating point, other numbers as whole numbers, null values are skipped. */
+    public void scheduleGaugeSet(String name, int intervalInSeconds, Supplier<? extends Map<String, ? extends Number>> supplier, String...tags) {
+        scheduleGaugeSet(name, intervalInSeconds, supplier, Util.buildTags(tags));
+    }
+
+    public void scheduleGaugeSet(String name, int intervalInSeconds, Supplier<? extends Map<String, ? extends Number>> supplier, Map<String,String> tags) {
+        scheduleGaugeSet(name, intervalInSeconds, (GaugeSet) sink -> {
+            Map<String, ? extends Number> values = supplier.get();
+            if (values == null) {
+                return;
+            }
+            for (Map.Entry<String, ? extends Number> e : values.entrySet()) {
+                Number n = e.getValue();
+                if (n instanceof Double || n instanceof Float) {
+                    sink.record(e.getKey(), n.doubleValue());
+                }
+                else if (n != null) {
+                    sink.record(e.getKey(), n.longValue());
                 }
             }
-        }
+        }, tags);
+    }
+
+    /** @return the number of gauge samples dropped for exceeding the gauge budget, see Builder.withGaugeBudget(..) */
+    public long getGaugeOverruns() {
+        GaugeScheduler g = gaugeScheduler;
+        return g == null ? 0 : g.overruns();
+    }
+
+    /** @return the number of gauge reports skipped, because the previous sample was still running */
+    public long getSkippedGaugeRuns() {
+        GaugeScheduler g = gaugeScheduler;
+        return g == null ? 0 : g.skippedRuns();
     }
 
     /** Allows the provided gauge to invoked at millisecond accuracy, but will only report the max result of those calls at the reportInterval 
@@ -451,93 +728,197 @@ public class MetricRegistry {
     public void scheduleMaxGauge(String name, int collectionIntervalInMilis, int reportIntervalInSeconds, Gauge<? extends Number> gauge, Map<String,String> tags) {
         name = name + ".gauge";
         MetricKey key = new MetricKey(name, tags);
-        if (!gauges.containsKey(key)) {
-            synchronized (gauge) {
-                if (!gauges.containsKey(key)) {
-                    gauges.put(key, gauge);
-                    pools.scheduleWithFixedDelay(new GaugeRunner<>(key, gauge, reportIntervalInSeconds, this),
-                                                 0,
-                                                 collectionIntervalInMilis,
-                                                 TimeUnit.MILLISECONDS);
-                }
-            }
-        }
+        Object scheduled = limiter.getIfAdmitted(gauges, key, k -> {
+            gaugeScheduler().schedule(new GaugeRunner<>(k, gauge, reportIntervalInSeconds, this), collectionIntervalInMilis);
+            return gauge;
+        });
+        warnIfRejected(key, scheduled);
     }
 
+    /** Schedules a meter, reporting its rate every interval.
+     *  Past the series limit of the name (Builder.withMaxSeriesPerMetric) the name's shared __overflow__ meter is
+     *  returned, so marks of new tag combinations are reported in the overflow series. */
     @SuppressWarnings("unchecked")
 	public Meter scheduleMeter(String name, int intervalInSeconds, String...tags) {
         name = name + ".meter";
-        MetricKey key = new MetricKey(name, Util.buildTags(tags));
-        Gauge meter = meters.get(key);
-        if (meter == null) {
-            synchronized (meters) {
-                meter = meters.get(key);
-                if (meter == null) {
-                    meter = new MeterImpl();
-                    meters.put(key,meter);
-                    pools.scheduleWithFixedDelay(new GaugeRunner<>(key, meter, this),
-                                                 0,
-                                                 intervalInSeconds,
-                                                 TimeUnit.SECONDS);                   
-                }
+        return (Meter)limiter.getOrCreate(meters, new MetricKey(name, Util.buildTags(tags)), k -> {
+            Gauge meter = new MeterImpl();
+            gaugeScheduler().schedule(new GaugeRunner<>(k, meter, this), TimeUnit.SECONDS.toMillis(intervalInSeconds));
+            return meter;
+        });
+    }
+
+
+    // a gauge's value comes from its callback, so there is no overflow series to fold it into, it is not scheduled
+    private void warnIfRejected(MetricKey key, Object scheduled) {
+        if (scheduled == null) {
+            log.warn("gauge {}{} not scheduled, {} is at its limit of {} series (see Builder.withMaxSeriesPerMetric)",
+                     key.getName(), key.getTags(), key.getName(), limiter.getMaxSeriesPerMetric());
+        }
+    }
+
+    // removes the series, and returns their slots to the cardinality limiter
+    private <T> void removeSeries(Map<MetricKey,T> series, Predicate<T> filter) {
+        removeSeries(series, filter, x -> {});
+    }
+
+    // as removeSeries, onRemove is called with each series removed
+    private <T> void removeSeries(Map<MetricKey,T> series, Predicate<T> filter, Consumer<T> onRemove) {
+        for (Map.Entry<MetricKey,T> e : series.entrySet()) {
+            if (filter.test(e.getValue()) && series.remove(e.getKey(), e.getValue())) {
+                limiter.release(e.getKey());
+                onRemove.accept(e.getValue());
             }
         }
-        return (Meter)meter;
     }
 
+    private void clearSeries(Map<MetricKey,?> series) {
+        removeSeries(series, s -> true);
+    }
 
-    /** Returns a map with the customTags + registryTags merged (customTags collisions always win).*/
-    private Map<String, String> mergeTags(Map<String, String> customTags) {
-        Map<String,String> ctags = new HashMap<>();
-        if (registryTags!=null) {
-            ctags.putAll(registryTags);
+    /** Returns the TagSet of customTags + registryTags, used by handles to merge tags once.*/
+    TagSet resolveTags(Map<String, String> customTags) {
+        return mergeTags(customTags);
+    }
+
+    /** Returns the TagSet of customTags + registryTags merged (customTags collisions always win).
+     *  Merged TagSets are cached per customTags, so repeated tag combinations do not re-merge.*/
+    private TagSet mergeTags(Map<String, String> customTags) {
+        TagSet custom = TagSet.of(customTags);
+        if (custom.isEmpty()) {
+            return registryTags;
+        }
+        if (registryTags.isEmpty()) {
+            return custom;
         }
-        if (customTags !=null){
-            ctags.putAll(customTags);
+        TagSet merged = mergedTags.get(custom);
+        if (merged == null) {
+            merged = registryTags.with(custom);
+            if (mergedTags.size() < TagSet.MAX_INTERNED) {
+                mergedTags.put(custom, merged);
+            }
         }
-        return ctags;
+        return merged;
     }
 
     public void addEventListener(EventListener listener) {
-    	if (pools == null) {
-    		// ensure thread pool is up
-    		synchronized (listeners) {
-    			if (pools == null)
-    				pools = new ScheduledThreadPoolExecutor(4, new DaemonThreadFactory());				
-			}
-    	}
-
         if (!listeners.contains(listener)) {
             synchronized (listeners) {
             	
                 if (!listeners.contains(listener)) {
-                    if (listener instanceof EventIndexingListener){
-                        enableMilliIndexing = true;
+                    if (listener instanceof EventIndexingListener && milliIndexer == null){
+                        milliIndexer = new MilliIndexer();
                     }
+                    dispatchStats.putIfAbsent(listener, new DurationStats());
                     listeners.add(listener);
+                    if (asyncRingSize > 0 && dispatcher == null) {
+                        dispatcher = new RingBufferDispatcher(asyncRingSize, asyncWaitStrategy, asyncConsumers, listeners, dispatchStats);
+                    }
+                    if (gaugeScheduler == null && hasAggregatedCounters()) {
+                        // restarts the reports of the counters kept when the listeners were removed
+                        gaugeScheduler();
+                    }
                 }
             }
         }
     }
 
+    /** the registry's gauge scheduler, created on first use, its gauges run on the shared MetricExecutors threads */
+    private GaugeScheduler gaugeScheduler() {
+    	if (gaugeScheduler == null) {
+    		synchronized (listeners) {
+    			if (gaugeScheduler == null) {
+    				GaugeScheduler g = new GaugeScheduler(this, gaugeBudgetMillis, slowGaugeVirtualThreads);
+    				// aggregated counters outlive the scheduler (see removeEventListener), they are rescheduled
+    				for (Map.Entry<MetricKey,Counter> e : counters.entrySet()) {
+    				    Counter c = e.getValue();
+    				    if (c.getReportMode() != Counter.ReportMode.EVENT) {
+    				        g.schedule(new GaugeRunner<>(e.getKey(), c::sample, this), c.getIntervalMillis());
+    				    }
+    				}
+    				gaugeScheduler = g;
+    			}
+			}
+    	}
+        return gaugeScheduler;
+    }
+
+    private boolean hasAggregatedCounters() {
+        for (Counter c : counters.values()) {
+            if (c.getReportMode() != Counter.ReportMode.EVENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** stops the gauge scheduler, the shared threads are left running for other registries */
+    private void shutdownPools() {
+        GaugeScheduler g = gaugeScheduler;
+        if (g != null) {
+            g.stop();
+        }
+    }
+
+    /** stops the sub-millisecond indexing (and its sweep) once no EventIndexingListener is left */
+    private void closeMilliIndexer() {
+        synchronized (listeners) {
+            MilliIndexer indexer = milliIndexer;
+            if (indexer == null) {
+                return;
+            }
+            for (EventListener l : listeners) {
+                if (l instanceof EventIndexingListener) {
+                    return;
+                }
+            }
+            milliIndexer = null;
+            indexer.close();
+        }
+    }
+
+    /** stops async dispatch (if enabled), once events already published are delivered. */
+    private void stopDispatcher() {
+        RingBufferDispatcher d = dispatcher;
+        if (d != null) {
+            dispatcher = null;
+            d.stop(2000);
+        }
+    }
+
+    /** @return the number of events dropped because the async dispatch ring was full */
+    public long getDroppedEvents() {
+        RingBufferDispatcher d = dispatcher;
+        return d == null ? 0 : d.droppedEvents();
+    }
+
     /** 
      * @deprecated use removeAllEventListeners(boolean stop)
      * @param listener Eventlistener to remove
      * */
     @Deprecated
     public void removeEventListener(EventListener listener) {
+        if (listeners.size() == 1 && listeners.contains(listener)) {
+            stopDispatcher();
+        }
         listener.stop();        
         listeners.remove(listener);
+        dispatchStats.remove(listener);
+        RingBufferDispatcher d = dispatcher;
+        if (d != null) {
+            d.removed(listener);
+        }
+        closeMilliIndexer();
         if (listeners.isEmpty()) {
         	try {
-        		pools.shutdown();
+        		shutdownPools();
         		
         	}
         	catch(Exception e) {
         		// no-op
         	}
         	finally {
-        		pools = null;
+        		gaugeScheduler = null;
         	}
         }
     }
@@ -550,26 +931,37 @@ public class MetricRegistry {
      * @param stop set to true to also terminate the listener
      * */
     public void removeEventListener(EventListener listener, boolean stop) {
-        
+        if (listeners.size() == 1 && listeners.contains(listener)) {
+            stopDispatcher();
+        }
     	if (stop) {
     		listener.stop();
-    		gauges.clear();
-            meters.clear();
-            counters.clear();
+    		clearSeries(gauges);
+    		clearSeries(gaugeSets);
+            clearSeries(meters);
+            // aggregated counters are kept, callers hold them, they are rescheduled with the next listener
+            removeSeries(counters, c -> c.getReportMode() == Counter.ReportMode.EVENT, c -> c.removed = true);
     	}
     	
         listeners.remove(listener);
+        dispatchStats.remove(listener);
+        RingBufferDispatcher d = dispatcher;
+        if (d != null) {
+            d.removed(listener);
+        }
+        closeMilliIndexer();
         if (listeners.isEmpty()) {
         	try {
-        		gauges.clear();
-                meters.clear();
-        		pools.shutdown();        		
+        		clearSeries(gauges);
+        		clearSeries(gaugeSets);
+                clearSeries(meters);
+        		shutdownPools();        		
         	}
         	catch(Exception e) {
         		// no-op
         	}
         	finally {
-        		pools = null;
+        		gaugeScheduler = null;
         	}
         }
     }
@@ -589,24 +981,29 @@ public class MetricRegistry {
      * @param stop set to true to terminate/stop all event listeners
      * */
     public void removeAllEventListeners(boolean stop) {
+        stopDispatcher();
     	if (stop) {
 	        for(EventListener listener : listeners) {
 	            listener.stop();
 	        }
     	}
         listeners.clear();
+        dispatchStats.clear();
+        closeMilliIndexer();
         try
         {
-        	gauges.clear();
-            meters.clear();
-            counters.clear();
-        	pools.shutdown();        	
+        	clearSeries(gauges);
+        	clearSeries(gaugeSets);
+            clearSeries(meters);
+            // aggregated counters are kept, callers hold them, they are rescheduled with the next listener
+            removeSeries(counters, c -> c.getReportMode() == Counter.ReportMode.EVENT, c -> c.removed = true);
+        	shutdownPools();        	
         }
     	catch(Exception e) {
     		// no-op
     	}
         finally {
-    		pools = null;
+    		gaugeScheduler = null;
     	}      
     }
     
@@ -615,16 +1012,21 @@ public class MetricRegistry {
     }
 
     void postEvent(String name, long ts, Map<String,String> customTags, Number number) {
-        EventImpl e;
-        Map<String, String> ctags = mergeTags(customTags);
+        dispatchEvent(newEvent(name, ts, customTags, number));
+    }
 
-        if (number instanceof Double) {
-            e = new DoubleEvent(prefix + name, ctags, ts, number.doubleValue());
+    /** @return a Double/LongEvent for the (un-prefixed) name, with the customTags merged */
+    EventImpl newEvent(String name, long ts, Map<String,String> customTags, Number number) {
+        TagSet ctags = mergeTags(customTags);
+        if (number instanceof Double || number instanceof Float) {
+            return new DoubleEvent(prefix + name, ctags, ts, number.doubleValue());
         }
-        else {
-            e = new LongEvent(prefix + name, ctags, ts, number.longValue());
-        }
-        dispatchEvent(e);
+        return new LongEvent(prefix + name, ctags, ts, number.longValue());
+    }
+
+    /** posts a LongEvent for the (un-prefixed) name, with tags already merged (see resolveTags) */
+    void postEvent(String name, long ts, TagSet mergedTags, long value) {
+        dispatchEvent(new LongEvent(prefix + name, mergedTags, ts, value));
     }
 
     void postEvent(String name, long ts, long value) {
@@ -637,60 +1039,160 @@ public class MetricRegistry {
         dispatchEvent(e);
     }
 
-    private Map<MetricKey,ResetCounter> counts = new ConcurrentHashMap<>();
     void dispatchEvent(EventImpl e) {
-        if (enableMilliIndexing) {
-            handleIndexing(e);
-        }
-        listeners.stream().forEach( l -> l.onEvent(e));
-    }
-
-    private void handleIndexing(EventImpl e) {
-        ResetCounter counter = counts.get(e.getHash());
-        if (counter == null) {
-            synchronized (counts) {
-                counter = counts.get(e.getHash());
-                if (counter == null) {
-                    counter = new ResetCounter(e.getTimestamp());
-                    counts.put(e.getHash(), counter);
-                    int index = counter.incrementAndGet() ;
-                    e.setIndex(index);
-                    return;
-                }
+        MilliIndexer indexer = milliIndexer;
+        if (indexer != null) {
+            e.setIndex(indexer.index(e.getHash(), e.getTimestamp()));
+        }
+        RingBufferDispatcher d = dispatcher;
+        if (d != null) {
+            d.publish(e);
+            return;
+        }
+        if (DurationStats.sampled()) {
+            for (EventListener l : listeners) {
+                long start = System.nanoTime();
+                l.onEvent(e);
+                recordDispatch(l, System.nanoTime() - start);
             }
+            return;
         }
-        try {
-            int index = counter.incrementAndGet() ;
-            e.setIndex(index);
+        for (EventListener l : listeners) {
+            l.onEvent(e);
         }
-        catch(Exception ex) {
-            ex.printStackTrace();
+    }
+
+    private void recordDispatch(EventListener l, long nanos) {
+        DurationStats stats = dispatchStats.get(l);
+        if (stats != null) {
+            stats.record(nanos);
         }
     }
 
-    Map<MetricKey, Counter> getCounters() {
-        return counters;
+    /** dispatches events[0..n), published to the async ring in one claim when async dispatch is enabled. */
+    void dispatchBatch(EventImpl[] events, int n) {
+        MilliIndexer indexer = milliIndexer;
+        if (indexer != null) {
+            for (int i = 0; i < n; i++) {
+                events[i].setIndex(indexer.index(events[i].getHash(), events[i].getTimestamp()));
+            }
+        }
+        RingBufferDispatcher d = dispatcher;
+        if (d != null) {
+            d.publish(events, n);
+            return;
+        }
+        boolean timed = DurationStats.sampled();
+        for (EventListener l : listeners) {
+            long start = timed ? System.nanoTime() : 0;
+            if (l instanceof BatchEventListener) {
+                ((BatchEventListener) l).onEvents(events, n);
+            }
+            else {
+                for (int i = 0; i < n; i++) {
+                    l.onEvent(events[i]);
+                }
+            }
+            if (timed && n > 0) {
+                // per event latency
+                recordDispatch(l, (System.nanoTime() - start) / n);
+            }
+        }
     }
-}
 
-// used to 'sub-index' on milli
-class ResetCounter {
-    public AtomicInteger counter = new AtomicInteger();
-    public long ts;
-    public ResetCounter(Long ts) {
-        this.ts = ts;
-    }
-    public int incrementAndGet() {
-        int count = 1;
-        if (System.currentTimeMillis() - ts  > 1) {
-            synchronized (this) {
-                ts = System.currentTimeMillis();
-                counter.set(1);
+    /** @return a snapshot of the pipeline's own cost: dropped events, dispatch backlog, per listener queue depth and
+     *  (sampled) onEvent latency, gauge overruns, cardinality overflows, live series per map, and percentile flush
+     *  time and backlog.  Cheap enough to poll, nothing is locked. */
+    public RegistryStats getStats() {
+        RingBufferDispatcher d = dispatcher;
+        List<RegistryStats.ListenerStats> listenerStats = new ArrayList<>(listeners.size());
+        Map<String,Integer> names = new HashMap<>();
+        for (EventListener l : listeners) {
+            String name = l.getClass().getSimpleName();
+            if (name.isEmpty()) {
+                // anonymous
+                name = l.getClass().getName().substring(l.getClass().getName().lastIndexOf('.') + 1);
             }
+            int n = names.merge(name, 1, Integer::sum);
+            if (n > 1) {
+                name = name + "-" + n;
+            }
+            listenerStats.add(new RegistryStats.ListenerStats(name, l.eventsBuffered(), dispatchStats.get(l)));
         }
-        else {
-            count = counter.incrementAndGet();
+        Map<String,Integer> series = new LinkedHashMap<>();
+        series.put("counters", counters.size());
+        series.put("gauges", gauges.size());
+        series.put("gaugeSets", gaugeSets.size());
+        series.put("meters", meters.size());
+        series.put("percentileTimers", PercentileTimer.seriesCount());
+        series.put("eventBuckets", EventBucket.seriesCount());
+        MilliIndexer indexer = milliIndexer;
+        series.put("milliIndexes", indexer == null ? 0 : indexer.size());
+        long overflows = 0;
+        for (long n : limiter.getOverflows().values()) {
+            overflows += n;
         }
-        return count;
+        GaugeScheduler g = gaugeScheduler;
+        return new RegistryStats(d == null ? 0 : d.droppedEvents(),
+                                 d == null ? 0 : d.backlog(),
+                                 d == null ? 0 : d.listenerErrors(),
+                                 listenerStats,
+                                 g == null ? 0 : g.overruns(),
+                                 g == null ? 0 : g.skippedRuns(),
+                                 g == null ? 0 : g.errors(),
+                                 overflows,
+                                 series,
+                                 MetricExecutors.flushStats(),
+                                 MetricExecutors.getQueuedTasks(),
+                                 MetricExecutors.getRejectedTasks());
+    }
+
+    /** Reports getStats() through this registry, as the gauge set metrics-raw.*, every intervalInSeconds:
+     *  events.dropped, dispatch.backlog/errors, listener.NAME.buffered/dispatchNanos.mean/dispatchNanos.max, gauge.overruns/skipped/errors,
+     *  cardinality.overflows, series.MAP, flush.count/nanos.mean/nanos.max/backlog, executor.rejected.
+     * @param intervalInSeconds report interval
+     * */
+    public void reportSelfMetrics(int intervalInSeconds) {
+        scheduleGaugeSet("metrics-raw", intervalInSeconds, sink -> {
+            RegistryStats s = getStats();
+            sink.record("events.dropped", s.getDroppedEvents());
+            sink.record("dispatch.backlog", (long) s.getDispatchBacklog());
+            sink.record("dispatch.errors", s.getListenerErrors());
+            for (RegistryStats.ListenerStats l : s.getListenerStats()) {
+                sink.record("listener." + l.getName() + ".buffered", (long) l.getEventsBuffered());
+                sink.record("listener." + l.getName() + ".dispatchNanos.mean", l.getMeanDispatchNanos());
+                sink.record("listener." + l.getName() + ".dispatchNanos.max", l.getMaxDispatchNanos());
+            }
+            sink.record("gauge.overruns", s.getGaugeOverruns());
+            sink.record("gauge.skipped", s.getSkippedGaugeRuns());
+            sink.record("gauge.errors", s.getGaugeErrors());
+            sink.record("cardinality.overflows", s.getCardinalityOverflows());
+            for (Map.Entry<String,Integer> e : s.getSeriesCounts().entrySet()) {
+                sink.record("series." + e.getKey(), (long) e.getValue());
+            }
+            sink.record("flush.count", s.getFlushes());
+            sink.record("flush.nanos.mean", s.getMeanFlushNanos());
+            sink.record("flush.nanos.max", s.getMaxFlushNanos());
+            sink.record("flush.backlog", (long) s.getFlushBacklog());
+            sink.record("executor.rejected", s.getRejectedTasks());
+        });
     }
-}
\ No newline at end of file
+
+    CardinalityLimiter cardinalityLimiter() {
+        return limiter;
+    }
+
+    /** @return the max series per metric name, 0 if unlimited, see Builder.withMaxSeriesPerMetric(..) */
+    public int getMaxSeriesPerMetric() {
+        return limiter.getMaxSeriesPerMetric();
+    }
+
+    /** @return metric name to the number of new tag combinations folded into its __overflow__ series */
+    public Map<String,Long> getCardinalityOverflows() {
+        return limiter.getOverflows();
+    }
+
+    Map<MetricKey, Counter> getCounters() {
+        return counters;
+    }
+}
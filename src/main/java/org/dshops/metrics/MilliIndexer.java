@@ -0,0 +1,94 @@
+package org.dshops.metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Sub-millisecond indexing of events, enabled once an EventIndexingListener is registered.
+ *  Events sharing a name+tags and timestamp get increasing indexes (1, 2, 3..), so stores keyed on
+ *  name/tags/timestamp do not overwrite them.
+ *
+ *  Each series keeps a single AtomicLong packing ((timestamp - base) << 22 | index), an event either bumps the index
+ *  of the current millisecond, or starts a new millisecond at 1, in one CAS without locking.  The timestamp is packed
+ *  relative to the indexer's creation, 41 bits cover about 34 years either side of it, events outside that range are
+ *  not indexed (index 1).
+ *  Series not seen for STALE_MILLIS are evicted by a periodic sweep, until close().
+ * */
+final class MilliIndexer {
+    static final long STALE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int INDEX_BITS = 22;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    // packed timestamps, exclusive (the lowest value is EVICTED)
+    private static final long MAX_OFFSET = 1L << (63 - INDEX_BITS);
+    // marks a state being evicted, writers seeing it re-resolve the series
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final Map<MetricKey,AtomicLong> states = new ConcurrentHashMap<>();
+    private final long base = System.currentTimeMillis();
+    private final ScheduledFuture<?> sweep;
+
+    MilliIndexer() {
+        sweep = MetricExecutors.scheduler().scheduleWithFixedDelay(this::evictStale,
+                                                                   STALE_MILLIS,
+                                                                   STALE_MILLIS,
+                                                                   TimeUnit.MILLISECONDS);
+    }
+
+    /** @return the index of an event for key at ts, 1 for the first event in a millisecond */
+    int index(MetricKey key, long timestamp) {
+        long ts = timestamp - base;
+        if (ts <= -MAX_OFFSET || ts >= MAX_OFFSET) {
+            return 1;
+        }
+        while (true) {
+            AtomicLong state = states.get(key);
+            if (state == null) {
+                state = states.computeIfAbsent(key, k -> new AtomicLong(ts << INDEX_BITS));
+            }
+            while (true) {
+                long cur = state.get();
+                if (cur == EVICTED) {
+                    break;
+                }
+                long next;
+                if ((cur >> INDEX_BITS) < ts) {
+                    next = (ts << INDEX_BITS) | 1;
+                }
+                else {
+                    // same millisecond, or an older (out of order) timestamp, which continues the current sequence
+                    next = (cur & INDEX_MASK) < INDEX_MASK ? cur + 1 : cur;
+                }
+                if (state.compareAndSet(cur, next)) {
+                    return (int)(next & INDEX_MASK);
+                }
+            }
+            // evicted concurrently, resolve the series again
+        }
+    }
+
+    void evictStale() {
+        long cutoff = System.currentTimeMillis() - STALE_MILLIS - base;
+        Iterator<Map.Entry<MetricKey,AtomicLong>> it = states.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MetricKey,AtomicLong> e = it.next();
+            AtomicLong state = e.getValue();
+            long cur = state.get();
+            if ((cur >> INDEX_BITS) < cutoff && state.compareAndSet(cur, EVICTED)) {
+                states.remove(e.getKey(), state);
+            }
+        }
+    }
+
+    int size() {
+        return states.size();
+    }
+
+    /** stops the eviction sweep, called by the registry once its last EventIndexingListener is removed */
+    void close() {
+        sweep.cancel(false);
+        states.clear();
+    }
+}
@@ -1,47 +1,114 @@
 package org.dshops.metrics;
 
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-/** Consider using the EventPercentileInfo (generic version) */
-public class PercentileInfo {
-    int[] values;
-    int valuesCollected = 0;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+/** Consider using the EventPercentileInfo (generic version)
+ *
+ *  Samples are appended lock free into per-thread stripes, a full stripe is merged into
+ *  the pending sample set, and percentiles are reported each time exactly 'buffer' samples have been merged.
+ * */
+public class PercentileInfo extends PercentileRecorder {
+    static final int STRIPES = stripeCount();
+
+    private final AtomicReferenceArray<Stripe> stripes;
+    private final int stripeSize;
+    // guarded by this
+    private long[] values;
+    private int valuesCollected = 0;
     private final MetricRegistry registry;
 
-    private static ExecutorService threadPool = Executors.newFixedThreadPool(10, new ThreadFactory() {
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r);
-            t.setDaemon(true);
-            return t;
-        }
-    });
     private final int[] percentilesToReport;
     private final MetricKey key;
 
     public PercentileInfo(MetricRegistry registry, int buffer, int[] percentilesToReport, MetricKey key) {
         this.registry = registry;
-        values = new int[buffer];
+        values = new long[buffer];
         this.percentilesToReport = percentilesToReport;
         this.key = key;
+        int stripeCount = Math.min(STRIPES, Integer.highestOneBit(buffer));
+        stripeSize = Math.max(1, buffer / stripeCount);
+        stripes = new AtomicReferenceArray<>(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.set(i, new Stripe(stripeSize));
+        }
     }
 
+    @Override
     public void update(long duration) {
+        touch();
+        int idx = stripeIndex(stripes.length());
+        while (true) {
+            Stripe s = stripes.get(idx);
+            int slot = s.claimed.getAndIncrement();
+            if (slot < s.values.length) {
+                if (slot == s.values.length - 1) {
+                    // only the writer claiming the last slot replaces the stripe (unless flushPartial retired it)
+                    stripes.compareAndSet(idx, s, new Stripe(stripeSize));
+                }
+                s.values[slot] = duration;
+                if (s.committed.incrementAndGet() == s.values.length) {
+                    merge(s.values);
+                }
+                return;
+            }
+            // stripe is full, its replacement is being installed.
+            Thread.yield();
+        }
+    }
+
+    /** buffer based percentiles are only reported once the buffer fills. */
+    @Override
+    public void flush() {
+    }
+
+    /** reports the samples merged so far plus those still in the stripes, the series is idle at this point. */
+    @Override
+    void flushPartial() {
+        long[] pending;
+        synchronized (this) {
+            pending = Arrays.copyOf(values, valuesCollected + stripes.length() * stripeSize);
+            int n = valuesCollected;
+            for (int i = 0; i < stripes.length(); i++) {
+                Stripe s = stripes.get(i);
+                if (s.claimed.get() == 0) {
+                    continue;
+                }
+                // swapped first, so writers move to the fresh stripe, and never merge the retired one
+                while (!stripes.compareAndSet(i, s, new Stripe(stripeSize))) {
+                    s = stripes.get(i);
+                }
+                int written = s.retire();
+                System.arraycopy(s.values, 0, pending, n, written);
+                n += written;
+            }
+            valuesCollected = 0;
+            pending = Arrays.copyOf(pending, n);
+        }
+        if (pending.length > 0) {
+            reportPercentiles(pending);
+        }
+    }
+
+    private void merge(long[] stripeValues) {
         synchronized (this) {
-            values[valuesCollected] = (int)duration;
-            valuesCollected++;
-            if (valuesCollected >= values.length) {
-                int[] tmp = values;
-                values = new int[values.length];
-                valuesCollected = 0;
-                threadPool.submit(() -> reportPercentiles(tmp));
+            int offset = 0;
+            while (offset < stripeValues.length) {
+                int len = Math.min(stripeValues.length - offset, values.length - valuesCollected);
+                System.arraycopy(stripeValues, offset, values, valuesCollected, len);
+                valuesCollected += len;
+                offset += len;
+                if (valuesCollected >= values.length) {
+                    long[] tmp = values;
+                    values = new long[values.length];
+                    valuesCollected = 0;
+                    MetricExecutors.flush(() -> reportPercentiles(tmp));
+                }
             }
         }
     }
 
-    public void reportPercentiles(int[] dataValues) {
+    public void reportPercentiles(long[] dataValues) {
         Arrays.sort(dataValues);
         long ts = System.currentTimeMillis();
         for (int p : percentilesToReport) {
@@ -56,7 +123,13 @@ public class PercentileInfo {
         }
     }
 
-    private long getPercentile(int percent, int[] dataValues) {
+    private long getPercentile(int percent, long[] dataValues) {
+        int index = (int)(percentileFraction(percent) * dataValues.length);
+        return dataValues[index];
+    }
+
+    /** percentiles are expressed as 90 (p90), 99 (p99), 999 (p99.9), 9999 (p99.99) etc. */
+    static float percentileFraction(int percent) {
         float percentF = 0;
         if (percent <=99)
             percentF = (float)percent/100;
@@ -69,7 +142,41 @@ public class PercentileInfo {
         else if (percent<=99999) {
             percentF = (float)percent/100000;
         }
-        int index = (int)(percentF * dataValues.length);
-        return dataValues[index];
+        return percentF;
+    }
+
+    /** number of stripes, next power of 2 >= available processors. */
+    private static int stripeCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return cpus <= 1 ? 1 : Integer.highestOneBit(cpus - 1) << 1;
+    }
+
+    static int stripeIndex(int stripeCount) {
+        long id = Thread.currentThread().getId();
+        return (int)(id ^ (id >>> 16)) & (stripeCount - 1);
+    }
+
+    // a fixed size chunk of samples, slots are claimed then committed by writers.
+    private static final class Stripe {
+        final long[] values;
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicInteger committed = new AtomicInteger();
+
+        Stripe(int size) {
+            values = new long[size];
+        }
+
+        // closes the stripe to writers, and waits for those holding a slot to write it
+        // @return the number of samples in the stripe, 0 if it is full (its last writer merges it)
+        int retire() {
+            int n = claimed.getAndSet(values.length);
+            if (n >= values.length) {
+                return 0;
+            }
+            while (committed.get() < n) {
+                Thread.yield();
+            }
+            return n;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package org.dshops.metrics;
+
+/** Accumulates the samples for one PercentileTimer series, and reports its percentiles. */
+abstract class PercentileRecorder extends TrackedSeries {
+    abstract void update(long value);
+
+    /** Reports what has been collected so far, invoked once per window in the time-windowed mode. */
+    abstract void flush();
+}
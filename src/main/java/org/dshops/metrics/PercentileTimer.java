@@ -1,20 +1,31 @@
 package org.dshops.metrics;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class PercentileTimer extends MetricBase implements Timer {
-	protected Long startTime;
-	private static Map<MetricKey,PercentileInfo> percentilesInfos = new ConcurrentHashMap<>();
+	protected long startNanos;
+	private static Map<MetricKey,PercentileRecorder> percentilesInfos = new ConcurrentHashMap<>();
+	private static final SeriesEviction<PercentileRecorder> eviction = new SeriesEviction<>(percentilesInfos);
 	private static int[] percentilesToReport = {90,99};
 	private static int buffer = 100;
+	// histogram engine, enabled when significantDigits > 0
+	private static int significantDigits = 0;
+	private static long highestTrackableValue;
+	// time-windowed mode, enabled when windowInSeconds > 0
+	private static int windowInSeconds = 0;
+	private static ScheduledFuture<?> windowTask;
 
 
 	public static void initPercentilesToReport(int[] percentiles, int sampleSize) {		
 	    if (!percentilesInfos.isEmpty()) {
             throw new RuntimeException("percentiles must be set prior to using a PercentileTimer!");
         }
+	    if (sampleSize <= 0) {
+	        throw new IllegalArgumentException("sampleSize must be > 0");
+	    }
 	    buffer = sampleSize;
 	    percentilesToReport = percentiles;
 	    for (int i = 0; i < percentiles.length; i++) {
@@ -25,6 +36,91 @@ public class PercentileTimer extends MetricBase implements Timer {
 	            throw new RuntimeException("The specified sample Size is too small to meet your percentile requirements!");
 	        }
 	    }
+	    significantDigits = 0;
+	}
+
+	/**
+	 * Switches PercentileTimers to the log-linear histogram engine, where memory per series is bounded by
+	 * the precision requested rather than the sample size, recording is O(1) and does not allocate.
+	 * Percentiles are expressed as 90 (p90), 99 (p99), 999 (p99.9), 9999 (p99.99), 99999 (p99.999).
+	 * @param percentiles the percentiles to report
+	 * @param sampleSize number of samples between reports, greater than 0
+	 * @param significantDigits 1-5, precision of the reported values, (2 == within 1%)
+	 * @param highestTrackableValue largest duration tracked, larger durations are reported as this value
+	 * */
+	public static void initPercentilesToReport(int[] percentiles, int sampleSize, int significantDigits, long highestTrackableValue) {
+	    if (!percentilesInfos.isEmpty()) {
+	        throw new RuntimeException("percentiles must be set prior to using a PercentileTimer!");
+	    }
+	    if (sampleSize <= 0) {
+	        throw new IllegalArgumentException("sampleSize must be > 0");
+	    }
+	    for (int i = 0; i < percentiles.length; i++) {
+	        if (percentiles[i] < 0 || percentiles[i] > 99999) {
+	            throw new RuntimeException("Illegal perentile!, just be >=0 && <= 99999");
+	        }
+	    }
+	    // fail fast on bad precision/range
+	    new LogLinearHistogram(significantDigits, highestTrackableValue);
+	    buffer = sampleSize;
+	    percentilesToReport = percentiles;
+	    PercentileTimer.significantDigits = significantDigits;
+	    PercentileTimer.highestTrackableValue = highestTrackableValue;
+	}
+
+	/**
+	 * Switches PercentileTimers to the time-windowed mode, percentiles are reported every windowInSeconds,
+	 * regardless of the number of samples collected.  The sampleSize (see initPercentilesToReport) then
+	 * becomes the size of a bounded reservoir, every sample is kept below sampleSize samples per window, above
+	 * it percentiles are taken from a uniform sample.  .count reports the actual number of samples in the window.
+	 * With the histogram engine every sample is counted, and the histogram is reported every window.
+	 * @param windowInSeconds report interval, 0 to disable (report each time sampleSize samples are collected)
+	 * */
+	public static synchronized void initReportingWindow(int windowInSeconds) {
+	    if (!percentilesInfos.isEmpty()) {
+	        throw new RuntimeException("reporting window must be set prior to using a PercentileTimer!");
+	    }
+	    if (windowInSeconds < 0) {
+	        throw new IllegalArgumentException("windowInSeconds must be >= 0");
+	    }
+	    if (windowTask != null) {
+	        windowTask.cancel(false);
+	        windowTask = null;
+	    }
+	    PercentileTimer.windowInSeconds = windowInSeconds;
+	    if (windowInSeconds > 0) {
+	        windowTask = MetricExecutors.scheduler().scheduleAtFixedRate(PercentileTimer::flushAll,
+	                                                                          windowInSeconds,
+	                                                                          windowInSeconds,
+	                                                                          TimeUnit.SECONDS);
+	    }
+	}
+
+	/**
+	 * Enables eviction of PercentileTimer series (name + tags), a series not updated for idleSeconds is dropped,
+	 * and if more than maxSeries series exist, the least recently updated ones are dropped (checked periodically).
+	 * Samples collected by an evicted series are reported before it is dropped.
+	 * @param idleSeconds idle time before a series is evicted, 0 to disable
+	 * @param maxSeries max number of series kept, 0 for no limit
+	 * */
+	public static void setSeriesEviction(int idleSeconds, int maxSeries) {
+	    eviction.configure(idleSeconds, maxSeries);
+	}
+
+	/** @return the number of PercentileTimer series currently held */
+	public static int seriesCount() {
+	    return percentilesInfos.size();
+	}
+
+	/** @return the number of PercentileTimer series evicted so far */
+	public static long evictedSeriesCount() {
+	    return eviction.evictedCount();
+	}
+
+	private static void flushAll() {
+	    for (PercentileRecorder p : percentilesInfos.values()) {
+	        MetricExecutors.flush(p::flush);
+	    }
 	}
 
 	/**
@@ -41,17 +137,18 @@ public class PercentileTimer extends MetricBase implements Timer {
     /** resets the startTime to now */
     @Override
     public Timer start() {
-    	startTime = System.currentTimeMillis();
+    	startNanos = System.nanoTime();
     	return this;
     }
 
     /** calculates the time from the start time, also triggers an event for Listeners */
     @Override
     public long stop() {
-    	return stop(System.currentTimeMillis() - startTime);
+    	return stop(System.nanoTime() - startNanos);
     }
 
-    private long stop(long duration) {
+    private long stop(long elapsedNanos) {
+        long duration = registry.getTimerUnit().convert(elapsedNanos, TimeUnit.NANOSECONDS);
         collectData(duration);
         return duration;
     }
@@ -66,37 +163,43 @@ public class PercentileTimer extends MetricBase implements Timer {
     /** todo This should error out, or 'not' update the duration on an already stopped timer. */
     @Override
     public long stop(Map<String,String> customTags) {
-        long duration = System.currentTimeMillis() - startTime;
-        if (this.tags == null) {
-            this.tags = new HashMap<>();
-        }
-        this.tags.putAll(customTags);
-        return stop(duration);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        this.tags = this.tags.with(customTags);
+        return stop(elapsedNanos);
     }
 
 
     private void collectData(long duration) {
-        MetricKey key = new MetricKey(name, tags);
-    	PercentileInfo p = percentilesInfos.get(key);
-    	if (p == null) {
-    	    synchronized (percentilesInfos) {
-                p = percentilesInfos.get(key);
-                if (p == null) {
-                    p = new PercentileInfo(registry, buffer, percentilesToReport, key);
-                    percentilesInfos.put(key, p);
-                }
-            }
+        getRecorder(registry, new MetricKey(name, tags)).update(duration);
+    }
+
+    /** get/create the recorder for the series identified by key */
+    static PercentileRecorder getRecorder(MetricRegistry registry, MetricKey key) {
+    	PercentileRecorder p = percentilesInfos.get(key);
+    	if (p != null) {
+    	    return p;
     	}
-    	p.update(duration);
+    	CardinalityLimiter limiter = registry != null ? registry.cardinalityLimiter() : CardinalityLimiter.NONE;
+    	return limiter.getOrCreate(percentilesInfos, key, k -> {
+    	    PercentileRecorder r;
+    	    if (significantDigits > 0) {
+    	        r = new HistogramPercentileInfo(registry, buffer, percentilesToReport, significantDigits, highestTrackableValue, windowInSeconds > 0, k);
+    	    }
+    	    else if (windowInSeconds > 0) {
+    	        r = new WindowedPercentileInfo(registry, buffer, percentilesToReport, k);
+    	    }
+    	    else {
+    	        r = new PercentileInfo(registry, buffer, percentilesToReport, k);
+    	    }
+    	    r.limiter = limiter;
+    	    return r;
+    	});
     }
 
     /** Add a tag to a running timer (todo should error out if timer already stopped) */
     @Override
     public PercentileTimer addTag(String name, String value) {
-        if (this.tags == null){
-            this.tags = new HashMap<>();
-        }
-        this.tags.put(name,value);
+        this.tags = this.tags.with(name, value);
         return this;
     }
 
@@ -1,10 +1,11 @@
 package org.dshops.metrics;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class RawTimer extends MetricBase implements Timer{
-	protected Long startTime;
+	protected Long startTime;         // wall clock, used for the event timestamp
+	protected long startNanos;        // used for the duration
 	private final boolean useStartTimeAsEventTime;
 
 	RawTimer(String name, MetricRegistry registry, boolean useStartTimeAsEventTime) {
@@ -26,28 +27,27 @@ public class RawTimer extends MetricBase implements Timer{
     @Override
     public Timer start() {
     	startTime = System.currentTimeMillis();
+    	startNanos = System.nanoTime();
     	return this;
     }
 
     /** Add a tag to a running timer (todo should error out if timer already stopped) */
     @Override
     public Timer addTag(String name, String value) {
-        if (this.tags == null) {
-            this.tags = new HashMap<>();
-        }
-        this.tags.put(name,value);
+        this.tags = this.tags.with(name, value);
         return this;
     }
 
     /** calculates the time from the starttime, and triggers an event for the Listeners */
     @Override
     public long stop() {
-    	return stop(System.currentTimeMillis() - startTime);
+    	return stop(System.nanoTime() - startNanos);
     }
 
-    private long stop(long duration) {
+    private long stop(long elapsedNanos) {
+        long duration = registry.getTimerUnit().convert(elapsedNanos, TimeUnit.NANOSECONDS);
         registry.postEvent(name,
-                           useStartTimeAsEventTime ? startTime : startTime+duration,
+                           useStartTimeAsEventTime ? startTime : startTime + TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
                            tags,
                            duration);
         return duration;
@@ -63,11 +63,8 @@ public class RawTimer extends MetricBase implements Timer{
     /** todo This should error out, or 'not' update the duration on an already stopped timer. */
     @Override
     public long stop(Map<String,String> customTags) {
-        long duration = System.currentTimeMillis() - startTime;
-    	if (this.tags == null) {
-    	    this.tags = new HashMap<>();
-    	}
-    	this.tags.putAll(customTags);
-    	return stop(duration);
+        long elapsedNanos = System.nanoTime() - startNanos;
+    	this.tags = this.tags.with(customTags);
+    	return stop(elapsedNanos);
     }
 }
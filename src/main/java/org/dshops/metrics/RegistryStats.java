@@ -0,0 +1,167 @@
+package org.dshops.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** A snapshot of the cost and health of a MetricRegistry's pipeline, see MetricRegistry.getStats().
+ *  Durations are in nanoseconds, and cover the life of the registry (or listener), counts are totals.
+ *  The flush and executor values are shared by every registry (see MetricExecutors).
+ * */
+public final class RegistryStats {
+    private final long droppedEvents;
+    private final int dispatchBacklog;
+    private final long listenerErrors;
+    private final List<ListenerStats> listeners;
+    private final long gaugeOverruns;
+    private final long skippedGaugeRuns;
+    private final long gaugeErrors;
+    private final long cardinalityOverflows;
+    private final Map<String,Integer> seriesCounts;
+    private final long flushes;
+    private final long meanFlushNanos;
+    private final long maxFlushNanos;
+    private final int flushBacklog;
+    private final long rejectedTasks;
+
+    RegistryStats(long droppedEvents, int dispatchBacklog, long listenerErrors, List<ListenerStats> listeners,
+                  long gaugeOverruns, long skippedGaugeRuns, long gaugeErrors, long cardinalityOverflows,
+                  Map<String,Integer> seriesCounts, DurationStats flush, int flushBacklog, long rejectedTasks) {
+        this.droppedEvents = droppedEvents;
+        this.dispatchBacklog = dispatchBacklog;
+        this.listenerErrors = listenerErrors;
+        this.listeners = Collections.unmodifiableList(listeners);
+        this.gaugeOverruns = gaugeOverruns;
+        this.skippedGaugeRuns = skippedGaugeRuns;
+        this.gaugeErrors = gaugeErrors;
+        this.cardinalityOverflows = cardinalityOverflows;
+        this.seriesCounts = Collections.unmodifiableMap(seriesCounts);
+        this.flushes = flush.count();
+        this.meanFlushNanos = flush.meanNanos();
+        this.maxFlushNanos = flush.maxNanos();
+        this.flushBacklog = flushBacklog;
+        this.rejectedTasks = rejectedTasks;
+    }
+
+    /** @return events dropped because the async dispatch ring was full */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /** @return events published to the async dispatch ring, not yet delivered (0 for synchronous dispatch) */
+    public int getDispatchBacklog() {
+        return dispatchBacklog;
+    }
+
+    /** @return exceptions thrown by listeners during async dispatch, the event(s) were not delivered to that listener */
+    public long getListenerErrors() {
+        return listenerErrors;
+    }
+
+    public List<ListenerStats> getListenerStats() {
+        return listeners;
+    }
+
+    /** @return gauge samples dropped for exceeding the gauge budget */
+    public long getGaugeOverruns() {
+        return gaugeOverruns;
+    }
+
+    /** @return gauge runs skipped, as the previous run had not completed */
+    public long getSkippedGaugeRuns() {
+        return skippedGaugeRuns;
+    }
+
+    /** @return gauge samples that threw */
+    public long getGaugeErrors() {
+        return gaugeErrors;
+    }
+
+    /** @return new tag combinations folded into __overflow__ series, all metrics */
+    public long getCardinalityOverflows() {
+        return cardinalityOverflows;
+    }
+
+    /** @return live series per map: counters, gauges, gaugeSets, meters, percentileTimers, eventBuckets (the last two are
+     *  shared by all registries), milliIndexes (series tracked by the EventIndexingListener indexing) */
+    public Map<String,Integer> getSeriesCounts() {
+        return seriesCounts;
+    }
+
+    /** @return percentile/bucket reports and flushes run */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getMeanFlushNanos() {
+        return meanFlushNanos;
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    /** @return tasks queued on the shared worker pool (reports, flushes, gauge groups) */
+    public int getFlushBacklog() {
+        return flushBacklog;
+    }
+
+    /** @return tasks dropped by the shared worker pool, its queue being full */
+    public long getRejectedTasks() {
+        return rejectedTasks;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistryStats [droppedEvents=" + droppedEvents + ", dispatchBacklog=" + dispatchBacklog
+               + ", listenerErrors=" + listenerErrors + ", listeners=" + listeners + ", gaugeOverruns=" + gaugeOverruns + ", skippedGaugeRuns=" + skippedGaugeRuns
+               + ", gaugeErrors=" + gaugeErrors + ", cardinalityOverflows=" + cardinalityOverflows
+               + ", seriesCounts=" + seriesCounts + ", flushes=" + flushes + ", meanFlushNanos=" + meanFlushNanos
+               + ", maxFlushNanos=" + maxFlushNanos + ", flushBacklog=" + flushBacklog + ", rejectedTasks=" + rejectedTasks + "]";
+    }
+
+    /** Per listener stats, onEvent latency is sampled (1 in 64 deliveries is timed). */
+    public static final class ListenerStats {
+        private final String name;
+        private final int eventsBuffered;
+        private final long sampledDispatches;
+        private final long meanDispatchNanos;
+        private final long maxDispatchNanos;
+
+        ListenerStats(String name, int eventsBuffered, DurationStats dispatch) {
+            this.name = name;
+            this.eventsBuffered = eventsBuffered;
+            this.sampledDispatches = dispatch != null ? dispatch.count() : 0;
+            this.meanDispatchNanos = dispatch != null ? dispatch.meanNanos() : 0;
+            this.maxDispatchNanos = dispatch != null ? dispatch.maxNanos() : 0;
+        }
+
+        /** @return the listener's simple class name (Outer$1 for anonymous classes), suffixed with -2, -3.. when several listeners share it */
+        public String getName() {
+            return name;
+        }
+
+        /** @return the listener's eventsBuffered(), its queue depth */
+        public int getEventsBuffered() {
+            return eventsBuffered;
+        }
+
+        public long getSampledDispatches() {
+            return sampledDispatches;
+        }
+
+        public long getMeanDispatchNanos() {
+            return meanDispatchNanos;
+        }
+
+        public long getMaxDispatchNanos() {
+            return maxDispatchNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [buffered=" + eventsBuffered + ", meanDispatchNanos=" + meanDispatchNanos
+                   + ", maxDispatchNanos=" + maxDispatchNanos + "]";
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package org.dshops.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Preallocated multi-producer ring buffer, used by MetricRegistry for asynchronous dispatch.
+ *
+ *  Application threads only claim a slot (one CAS) and publish the event, if the ring is full the
+ *  event is dropped (and counted) rather than blocking the caller.
+ *  Each consumer thread reads every event, and delivers it to its share of the listeners, so a slow listener only delays
+ *  the listeners sharing its consumer.  Listeners are pinned to a consumer (round robin) when first seen, adding or
+ *  removing a listener never moves the others, which would deliver events twice or not at all.
+ *  Listener exceptions are counted (listenerErrors()), and do not stop dispatch for the other listeners.
+ *  Consumers deliver the events available (up to MAX_BATCH) as one batch, BatchEventListeners receive it in one call.
+ *  A sample of deliveries is timed per listener, see MetricRegistry.getStats().
+ * */
+class RingBufferDispatcher {
+    private static final int SPIN_TRIES = 100;
+    private static final int MAX_BATCH = 256;
+
+    private final EventImpl[] entries;
+    private final AtomicLongArray published;  // sequence published per slot
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(-1);  // highest claimed sequence
+    private volatile long gatingCache = -1;
+    private final Consumer[] consumers;
+    private final List<EventListener> listeners;
+    private final Map<EventListener,DurationStats> dispatchStats;
+    private final WaitStrategy waitStrategy;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder listenerErrors = new LongAdder();
+    // listener -> index of the consumer delivering to it
+    private final Map<EventListener,Integer> assignments = new ConcurrentHashMap<>();
+    private final AtomicInteger nextConsumer = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile boolean running = true;
+
+    RingBufferDispatcher(int ringSize, WaitStrategy waitStrategy, int consumerCount, List<EventListener> listeners,
+                         Map<EventListener,DurationStats> dispatchStats) {
+        if (ringSize < 2) {
+            throw new IllegalArgumentException("ringSize must be >= 2");
+        }
+        if (consumerCount < 1) {
+            throw new IllegalArgumentException("consumerCount must be >= 1");
+        }
+        int size = Integer.highestOneBit(ringSize - 1) << 1;
+        entries = new EventImpl[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.listeners = listeners;
+        this.dispatchStats = dispatchStats;
+        consumers = new Consumer[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            consumers[i] = new Consumer(i);
+        }
+        for (Consumer c : consumers) {
+            c.thread.start();
+        }
+    }
+
+    /** @return false if the ring was full, and the event dropped */
+    boolean publish(EventImpl e) {
+        long current;
+        long next;
+        do {
+            current = cursor.get();
+            next = current + 1;
+            long wrapPoint = next - entries.length;
+            if (wrapPoint > gatingCache) {
+                long min = minimumConsumerSequence();
+                gatingCache = min;
+                if (wrapPoint > min) {
+                    dropped.increment();
+                    return false;
+                }
+            }
+        } while (!cursor.compareAndSet(current, next));
+
+        int idx = (int)next & mask;
+        entries[idx] = e;
+        published.set(idx, next);
+        signalConsumers();
+        return true;
+    }
+
+    /** Publishes events[0..n), claiming their slots with a single CAS, and waking the consumers once.
+     *  @return the number of events published, events not fitting in the ring are dropped (and counted) */
+    int publish(EventImpl[] events, int n) {
+        long current;
+        int count;
+        do {
+            current = cursor.get();
+            long free = gatingCache + entries.length - current;
+            if (free < n) {
+                long min = minimumConsumerSequence();
+                gatingCache = min;
+                free = min + entries.length - current;
+            }
+            count = (int)Math.max(0, Math.min(n, free));
+            if (count == 0) {
+                dropped.add(n);
+                return 0;
+            }
+        } while (!cursor.compareAndSet(current, current + count));
+
+        for (int i = 0; i < count; i++) {
+            long seq = current + 1 + i;
+            int idx = (int)seq & mask;
+            entries[idx] = events[i];
+            published.set(idx, seq);
+        }
+        if (count < n) {
+            dropped.add(n - count);
+        }
+        signalConsumers();
+        return count;
+    }
+
+    private void signalConsumers() {
+        if (waitStrategy == WaitStrategy.BLOCKING && waiters.get() > 0) {
+            lock.lock();
+            try {
+                available.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    long droppedEvents() {
+        return dropped.sum();
+    }
+
+    /** @return exceptions thrown by listeners, while delivering */
+    long listenerErrors() {
+        return listenerErrors.sum();
+    }
+
+    // the first consumer to see a listener pins it, every consumer then agrees on its owner
+    private int consumerOf(EventListener l) {
+        return assignments.computeIfAbsent(l, k -> Math.floorMod(nextConsumer.getAndIncrement(), consumers.length));
+    }
+
+    /** forgets a removed listener's consumer, re-adding it pins it again */
+    void removed(EventListener l) {
+        assignments.remove(l);
+    }
+
+    /** @return the number of events published, but not yet delivered by every consumer */
+    int backlog() {
+        return (int)(cursor.get() - minimumConsumerSequence());
+    }
+
+    /** Stops the consumers once they have delivered the published events, waiting at most timeoutMillis. */
+    void stop(long timeoutMillis) {
+        running = false;
+        lock.lock();
+        try {
+            available.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Consumer c : consumers) {
+            try {
+                c.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private long minimumConsumerSequence() {
+        long min = Long.MAX_VALUE;
+        for (Consumer c : consumers) {
+            long s = c.sequence.get();
+            if (s < min) {
+                min = s;
+            }
+        }
+        return min;
+    }
+
+    private boolean isPublished(long seq) {
+        return published.get((int)seq & mask) == seq;
+    }
+
+    private void waitFor(long seq, int tries) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELDING:
+                if (tries > SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            case SLEEPING:
+                if (tries > SPIN_TRIES * 2) {
+                    LockSupport.parkNanos(100_000);
+                }
+                else if (tries > SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            case BLOCKING:
+                if (tries > SPIN_TRIES) {
+                    waiters.incrementAndGet();
+                    lock.lock();
+                    try {
+                        while (running && !isPublished(seq)) {
+                            available.await(100, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        lock.unlock();
+                        waiters.decrementAndGet();
+                    }
+                }
+                break;
+        }
+    }
+
+    private final class Consumer implements Runnable {
+        final AtomicLong sequence = new AtomicLong(-1);  // last sequence delivered
+        final Thread thread;
+        private final int index;
+        private final Event[] batch = new Event[MAX_BATCH + 1];
+
+        Consumer(int index) {
+            this.index = index;
+            thread = new Thread(this);
+            thread.setName("metric-raw-dispatch-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long seq = sequence.get();
+            int tries = 0;
+            while (true) {
+                long next = seq + 1;
+                if (isPublished(next)) {
+                    long hi = next;
+                    while (hi - next < MAX_BATCH && isPublished(hi + 1)) {
+                        hi++;
+                    }
+                    int n = 0;
+                    for (long s = next; s <= hi; s++) {
+                        batch[n++] = entries[(int)s & mask];
+                    }
+                    deliver(batch, n);
+                    Arrays.fill(batch, 0, n, null);
+                    seq = hi;
+                    sequence.set(seq);
+                    tries = 0;
+                }
+                else if (!running && cursor.get() <= seq) {
+                    return;
+                }
+                else if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                else {
+                    waitFor(next, ++tries);
+                }
+            }
+        }
+
+        private void deliver(Event[] events, int n) {
+            boolean timed = DurationStats.sampled();
+            for (EventListener l : listeners) {
+                if (consumerOf(l) == index) {
+                    long start = timed ? System.nanoTime() : 0;
+                    if (l instanceof BatchEventListener) {
+                        try {
+                            ((BatchEventListener) l).onEvents(events, n);
+                        }
+                        catch (RuntimeException ex) {
+                            // a failing listener must not stop dispatch for the others
+                            listenerErrors.increment();
+                        }
+                    }
+                    else {
+                        for (int j = 0; j < n; j++) {
+                            try {
+                                l.onEvent(events[j]);
+                            }
+                            catch (RuntimeException ex) {
+                                // a failing listener must not stop dispatch for the others
+                                listenerErrors.increment();
+                            }
+                        }
+                    }
+                    if (timed) {
+                        DurationStats stats = dispatchStats.get(l);
+                        if (stats != null) {
+                            // per event latency
+                            stats.record((System.nanoTime() - start) / n);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
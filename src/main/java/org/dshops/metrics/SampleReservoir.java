@@ -0,0 +1,155 @@
+package org.dshops.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Bounded, striped reservoir used by the time-windowed PercentileTimer/EventBucket modes.
+ *
+ *  Each stripe (selected by thread) keeps a uniform sample of at most 'capacity' values (reservoir sampling),
+ *  along with the exact count/min/max/sum of everything it saw.  drain() merges the stripes, weighting each
+ *  stripe by its share of the window's samples, into at most 'capacity' values.
+ *  Below 'capacity' samples per window every sample is kept.  Memory is bounded by stripes * capacity, and
+ *  stripe arrays are only allocated once a thread maps to that stripe.
+ *
+ *  Values are longs, doubles are stored as sortable longs (see sortable(double)), so both sort numerically.
+ * */
+class SampleReservoir {
+    private final Stripe[] stripes;
+    private final int capacity;
+    private final boolean doubles;
+    // guarded by this (drain)
+    private final long[] counts;
+    private final long[][] drained;
+
+    // summary of the last drain
+    long count;
+    long min;
+    long max;
+    double sum;
+    double sumOfSquares;
+
+    SampleReservoir(int capacity, boolean doubles) {
+        this.capacity = capacity;
+        this.doubles = doubles;
+        int stripeCount = PercentileInfo.STRIPES;
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        counts = new long[stripeCount];
+        drained = new long[stripeCount][];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    void update(long value) {
+        Stripe s = stripes[PercentileInfo.stripeIndex(stripes.length)];
+        double d = doubles ? fromSortable(value) : value;
+        synchronized (s) {
+            if (s.values == null) {
+                s.values = new long[capacity];
+                s.spare = new long[capacity];
+            }
+            long n = ++s.count;
+            if (n <= capacity) {
+                s.values[(int)n - 1] = value;
+            }
+            else {
+                long j = ThreadLocalRandom.current().nextLong(n);
+                if (j < capacity) {
+                    s.values[(int)j] = value;
+                }
+            }
+            if (n == 1 || value < s.min) {
+                s.min = value;
+            }
+            if (n == 1 || value > s.max) {
+                s.max = value;
+            }
+            s.sum += d;
+            s.sumOfSquares += d * d;
+        }
+    }
+
+    /** Moves the window's samples into out (length >= capacity), and resets the reservoir.
+     *  count/min/max/sum/sumOfSquares describe every sample seen in the window.
+     *  @return the number of samples written to out */
+    synchronized int drain(long[] out) {
+        count = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe s = stripes[i];
+            synchronized (s) {
+                counts[i] = s.count;
+                if (s.count == 0) {
+                    continue;
+                }
+                if (count == 0 || s.min < min) {
+                    min = s.min;
+                }
+                if (count == 0 || s.max > max) {
+                    max = s.max;
+                }
+                count += s.count;
+                sum += s.sum;
+                sumOfSquares += s.sumOfSquares;
+                drained[i] = s.values;
+                s.values = s.spare;
+                s.spare = drained[i];
+                s.count = 0;
+                s.sum = 0;
+                s.sumOfSquares = 0;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        int written = 0;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < stripes.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            long[] values = drained[i];
+            int stored = (int)Math.min(counts[i], capacity);
+            int take = count <= capacity ? stored : (int)Math.min(stored, (capacity * counts[i]) / count);
+            if (take == stored) {
+                System.arraycopy(values, 0, out, written, stored);
+            }
+            else {
+                // partial fisher-yates, the stripe's reservoir is a uniform sample, but not in random order
+                for (int j = 0; j < take; j++) {
+                    int k = j + rnd.nextInt(stored - j);
+                    long tmp = values[k];
+                    values[k] = values[j];
+                    values[j] = tmp;
+                    out[written + j] = tmp;
+                }
+            }
+            written += take;
+        }
+        return written;
+    }
+
+    /** maps a double to a long, with the same ordering */
+    static long sortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    static double fromSortable(long value) {
+        return Double.longBitsToDouble(value ^ ((value >> 63) & Long.MAX_VALUE));
+    }
+
+    private static final class Stripe {
+        long[] values;
+        long[] spare;
+        long count;
+        long min;
+        long max;
+        double sum;
+        double sumOfSquares;
+    }
+}
@@ -0,0 +1,14 @@
+package org.dshops.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** A task sampled by the GaugeScheduler, a single gauge (GaugeRunner) or a gauge set (GaugeSetRunner). */
+abstract class ScheduledGauge {
+    // set while a slow gauge sample is in flight
+    final AtomicBoolean running = new AtomicBoolean();
+
+    /** Samples the gauge(s), invoked by one thread at a time.
+     *  @param ts the timestamp shared by every gauge sampled in this pass
+     *  @param out receives the events to report */
+    abstract void sample(long ts, EventBatch out);
+}
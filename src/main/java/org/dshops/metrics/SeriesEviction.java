@@ -0,0 +1,79 @@
+package org.dshops.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Drops idle series from the static PercentileTimer/EventBucket maps, see PercentileTimer.setSeriesEviction(..).
+ *
+ *  The map is swept periodically, a series not updated for idleSeconds is removed, and if more than maxSeries remain,
+ *  the least recently updated are removed as well.  Evicted series flush their partial buffers first, so no
+ *  collected samples are lost, a later update for the same name/tags simply creates a new series.
+ * */
+final class SeriesEviction<T extends TrackedSeries> {
+    private final Map<MetricKey,T> series;
+    private final AtomicLong evictedCount = new AtomicLong();
+    private volatile int idleSweepLimit;
+    private volatile int maxSeries;
+    private ScheduledFuture<?> task;
+
+    SeriesEviction(Map<MetricKey,T> series) {
+        this.series = series;
+    }
+
+    /** @param idleSeconds evict series idle for this long, 0 to disable
+     *  @param maxSeries max series kept (checked every sweep), 0 for no limit */
+    synchronized void configure(int idleSeconds, int maxSeries) {
+        if (idleSeconds < 0 || maxSeries < 0) {
+            throw new IllegalArgumentException("idleSeconds and maxSeries must be >= 0");
+        }
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        int period = idleSeconds > 0 ? Math.max(1, idleSeconds / 4) : 10;
+        this.idleSweepLimit = idleSeconds > 0 ? (idleSeconds + period - 1) / period : 0;
+        this.maxSeries = maxSeries;
+        if (idleSeconds > 0 || maxSeries > 0) {
+            task = MetricExecutors.scheduler().scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    void sweep() {
+        int idleLimit = idleSweepLimit;
+        int max = maxSeries;
+        List<Map.Entry<MetricKey,T>> kept = max > 0 ? new ArrayList<>() : null;
+        for (Map.Entry<MetricKey,T> e : series.entrySet()) {
+            int idle = e.getValue().sweep();
+            if (idleLimit > 0 && idle >= idleLimit) {
+                evict(e.getKey(), e.getValue());
+            }
+            else if (kept != null) {
+                kept.add(e);
+            }
+        }
+        if (kept != null && kept.size() > max) {
+            // least recently updated first
+            kept.sort((a, b) -> Integer.compare(b.getValue().idleSweeps(), a.getValue().idleSweeps()));
+            for (int i = 0; i < kept.size() - max; i++) {
+                evict(kept.get(i).getKey(), kept.get(i).getValue());
+            }
+        }
+    }
+
+    private void evict(MetricKey key, T s) {
+        if (series.remove(key, s)) {
+            s.evicted = true;
+            s.limiter.release(key);
+            evictedCount.incrementAndGet();
+            MetricExecutors.flush(s::flushPartial);
+        }
+    }
+
+    long evictedCount() {
+        return evictedCount.get();
+    }
+}
@@ -0,0 +1,256 @@
+package org.dshops.metrics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/** An immutable set of tag name/value pairs, sorted by tag name.
+ *  TagSets are interned (see of(..)), so a tag combination is shared by every MetricKey/Event using it,
+ *  the hash is computed once, and equals between interned TagSets is an identity check.
+ *  TagSet honours the Map contract (equals/hashCode against any Map), so it can be used wherever tags
+ *  were previously passed as a {@code Map<String,String>}.
+ *
+ *  The intern table is bounded to MAX_INTERNED (100,000) tag combinations, and never evicted: entries live for the
+ *  life of the process.  Combinations seen once the table is full are not interned, they remain correct (equals falls
+ *  back to comparing names/values) but are no longer shared, so each event/metric holds its own copy.  Keep tag
+ *  values low cardinality (see MetricRegistry.Builder.withMaxSeriesPerMetric).
+ * */
+public final class TagSet extends AbstractMap<String,String> {
+    public static final TagSet EMPTY = new TagSet(new String[0], new String[0]);
+
+    // bounds the intern table, TagSets created past this are still correct, just not shared.
+    static final int MAX_INTERNED = 100_000;
+    private static final Map<TagSet,TagSet> interned = new ConcurrentHashMap<>();
+
+    private final String[] names;
+    private final String[] values;
+    private final int hash;
+    private Set<Entry<String,String>> entrySet;
+
+    private TagSet(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+        int h = 0;
+        for (int i = 0; i < names.length; i++) {
+            h += names[i].hashCode() ^ Objects.hashCode(values[i]);
+        }
+        this.hash = h;
+    }
+
+    /** @return the interned TagSet holding tags, tags itself if it already is a TagSet */
+    public static TagSet of(Map<String,String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return EMPTY;
+        }
+        if (tags instanceof TagSet) {
+            return (TagSet) tags;
+        }
+        String[] n = new String[tags.size()];
+        String[] v = new String[n.length];
+        int i = 0;
+        for (Map.Entry<String,String> e : tags.entrySet()) {
+            n[i] = e.getKey();
+            v[i++] = e.getValue();
+        }
+        return create(n, v, i);
+    }
+
+    /** @param tags name/value,name/value.. pairs
+     *  @return the interned TagSet holding tags */
+    public static TagSet of(String... tags) {
+        if (tags == null || tags.length == 0) {
+            return EMPTY;
+        }
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("corrupted tags arguments, must be name/value,name/value, tags provided not divisiable by 2!");
+        }
+        int len = tags.length / 2;
+        String[] n = new String[len];
+        String[] v = new String[len];
+        for (int i = 0; i < len; i++) {
+            n[i] = tags[2 * i];
+            v[i] = tags[2 * i + 1];
+        }
+        return create(n, v, len);
+    }
+
+    /** @return this TagSet with name set to value */
+    public TagSet with(String name, String value) {
+        int pos = indexOf(name);
+        if (pos >= 0 && Objects.equals(values[pos], value)) {
+            return this;
+        }
+        String[] n = Arrays.copyOf(names, names.length + 1);
+        String[] v = Arrays.copyOf(values, values.length + 1);
+        n[names.length] = name;
+        v[values.length] = value;
+        return create(n, v, n.length);
+    }
+
+    /** @return this TagSet merged with tags, tags win on collisions */
+    public TagSet with(Map<String,String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return this;
+        }
+        if (names.length == 0) {
+            return of(tags);
+        }
+        String[] n = Arrays.copyOf(names, names.length + tags.size());
+        String[] v = Arrays.copyOf(values, n.length);
+        int i = names.length;
+        for (Map.Entry<String,String> e : tags.entrySet()) {
+            n[i] = e.getKey();
+            v[i++] = e.getValue();
+        }
+        return create(n, v, i);
+    }
+
+    // sorts (insertion, tag sets are small) and de-dups the first len pairs in place, the last value for a name wins.
+    private static TagSet create(String[] names, String[] values, int len) {
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            String n = names[i];
+            String v = values[i];
+            if (n == null) {
+                throw new IllegalArgumentException("tag names cannot be null");
+            }
+            int pos = Arrays.binarySearch(names, 0, size, n);
+            if (pos >= 0) {
+                values[pos] = v;
+                continue;
+            }
+            pos = -pos - 1;
+            System.arraycopy(names, pos, names, pos + 1, size - pos);
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+            names[pos] = n;
+            values[pos] = v;
+            size++;
+        }
+        if (size < names.length) {
+            names = Arrays.copyOf(names, size);
+            values = Arrays.copyOf(values, size);
+        }
+        return intern(new TagSet(names, values));
+    }
+
+    private static TagSet intern(TagSet tags) {
+        TagSet existing = interned.get(tags);
+        if (existing != null) {
+            return existing;
+        }
+        if (interned.size() >= MAX_INTERNED) {
+            return tags;
+        }
+        existing = interned.putIfAbsent(tags, tags);
+        return existing != null ? existing : tags;
+    }
+
+    /** @return the number of interned TagSets */
+    static int internedCount() {
+        return interned.size();
+    }
+
+    private int indexOf(Object name) {
+        if (!(name instanceof String)) {
+            return -1;
+        }
+        return Arrays.binarySearch(names, name);
+    }
+
+    /** @return the i'th tag name (in sorted order), allows iterating without allocating */
+    public String name(int i) {
+        return names[i];
+    }
+
+    /** @return the i'th tag value (in sorted order) */
+    public String value(int i) {
+        return values[i];
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    @Override
+    public String get(Object name) {
+        int pos = indexOf(name);
+        return pos >= 0 ? values[pos] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return indexOf(name) >= 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int i = 0; i < names.length; i++) {
+            action.accept(names[i], values[i]);
+        }
+    }
+
+    @Override
+    public Set<Entry<String,String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String,String>>() {
+                @Override
+                public Iterator<Entry<String,String>> iterator() {
+                    return new Iterator<Entry<String,String>>() {
+                        int i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < names.length;
+                        }
+
+                        @Override
+                        public Entry<String,String> next() {
+                            if (i >= names.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String,String> e = new SimpleImmutableEntry<>(names[i], values[i]);
+                            i++;
+                            return e;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof TagSet) {
+            TagSet other = (TagSet) o;
+            return hash == other.hash && Arrays.equals(names, other.names) && Arrays.equals(values, other.values);
+        }
+        return super.equals(o);
+    }
+}
@@ -12,7 +12,7 @@ public interface Timer {
     public Timer addTag(String name, String value);
 
     /** calculates the time from the start time, also triggers an event for Listeners 
-     * @return time in millis since started
+     * @return time since started, in the registry's timer unit (default milliseconds)
      * */
     public long stop();
 
@@ -21,13 +21,13 @@ public interface Timer {
     /** calculates the time from the startTime, and adds the provided tags,
      * also triggers an event for Listeners 
      * @param tags one or more tags/values pairs
-     * @return time in millis since started
+     * @return time since started, in the registry's timer unit (default milliseconds)
      * */
     public long stop(String... tags);
 
     /** todo This should error out, or 'not' update the duration on an already stopped timer. 
      * @param customTags map of tag/value pairs
-     * @return time in millis since started
+     * @return time since started, in the registry's timer unit (default milliseconds)
      * */
     public long stop(Map<String,String> customTags);
 }
@@ -0,0 +1,70 @@
+package org.dshops.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** A re-usable, thread safe timer, see MetricRegistry.timerHandle(..) and percentileTimerHandle(..).
+ *  Rather then allocating a Timer per measurement, start() returns a primitive token which is passed to stop(token):
+ * <pre>
+ *     long t = handle.start();
+ *     ...
+ *     handle.stop(t);
+ * </pre>
+ *  A percentile handle allocates nothing per measurement, a raw handle only allocates the event posted.
+ * */
+public final class TimerHandle {
+    private final String name;
+    private final Map<String,String> tags;
+    private final MetricKey percentileKey;
+    private volatile PercentileRecorder recorder;
+    private final boolean useStartTimeAsEventTime;
+    private final MetricRegistry registry;
+
+    TimerHandle(String name, Map<String,String> tags, MetricKey percentileKey, boolean useStartTimeAsEventTime, MetricRegistry registry) {
+        this.name = name;
+        this.tags = tags;
+        this.percentileKey = percentileKey;
+        this.recorder = percentileKey != null ? PercentileTimer.getRecorder(registry, percentileKey) : null;
+        this.useStartTimeAsEventTime = useStartTimeAsEventTime;
+        this.registry = registry;
+    }
+
+    /** @return the token to pass to stop(token) */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /** Records the time since start()
+     * @param token the value returned by start()
+     * @return time since started, in the registry's timer unit
+     * */
+    public long stop(long token) {
+        return record(System.nanoTime() - token, TimeUnit.NANOSECONDS);
+    }
+
+    /** Records a duration measured elsewhere (e.g. a GC pause reported by the JVM), as if timed with start/stop.
+     * @param elapsed the duration
+     * @param unit the unit of elapsed
+     * @return the duration, in the registry's timer unit
+     * */
+    public long record(long elapsed, TimeUnit unit) {
+        long elapsedNanos = unit.toNanos(elapsed);
+        long duration = registry.getTimerUnit().convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        PercentileRecorder r = recorder;
+        if (r != null) {
+            if (r.evicted) {
+                r = PercentileTimer.getRecorder(registry, percentileKey);
+                recorder = r;
+            }
+            r.update(duration);
+        }
+        else {
+            long ts = System.currentTimeMillis();
+            if (useStartTimeAsEventTime) {
+                ts -= TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            }
+            registry.dispatchEvent(new LongEvent(name, tags, ts, duration));
+        }
+        return duration;
+    }
+}
@@ -0,0 +1,156 @@
+package org.dshops.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Hashed timer wheel, shared by every registry's GaugeScheduler (see MetricExecutors.timerWheel()).
+ *
+ *  Timers fire every interval, on multiples of their interval, so timers with related intervals fire together.
+ *  Firing only hands work off (to a pool), so one thread drives every timer in the process.  The thread is started
+ *  when a timer is added, and exits once no timers remain.
+ * */
+final class TimerWheel implements Runnable {
+    static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    // timers added since the last tick, inserted into the wheel by the wheel thread
+    private final Queue<Timer> pending = new ConcurrentLinkedQueue<>();
+    // wheel thread only
+    private final List<List<Timer>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private long lastTick;
+    private int timers;
+    // guarded by this (written), read by isWheelThread
+    private volatile Thread thread;
+
+    abstract static class Timer {
+        final long interval;
+        long deadline;                      // wheel thread only
+
+        Timer(long intervalMillis) {
+            this.interval = intervalMillis;
+        }
+
+        /** invoked on the wheel thread, must not block
+         *  @return false once cancelled, the timer is then dropped from the wheel */
+        abstract boolean fire();
+    }
+
+    TimerWheel() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /** t first fires on the next multiple of its interval */
+    void add(Timer t) {
+        pending.add(t);
+        synchronized (this) {
+            if (thread == null) {
+                thread = new DaemonThreadFactory().newThread(this);
+                thread.setName("metric-raw-timer-wheel");
+                thread.start();
+            }
+        }
+    }
+
+    /** @return true if called from the wheel thread */
+    boolean isWheelThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void run() {
+        try {
+            tick();
+        }
+        finally {
+            // should the thread die, the next add() starts another one, the wheel (and its timers) are kept
+            synchronized (this) {
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    private void tick() {
+        lastTick = now() / TICK_MILLIS;
+        while (true) {
+            long now = now();
+            Timer t;
+            while ((t = pending.poll()) != null) {
+                t.deadline = (now / t.interval + 1) * t.interval;
+                insert(t);
+                timers++;
+            }
+            if (timers == 0) {
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                }
+                continue;
+            }
+            long nowTick = now / TICK_MILLIS;
+            if (nowTick - lastTick > WHEEL_SIZE) {
+                // fell behind more than one revolution, visit each slot once
+                lastTick = nowTick - WHEEL_SIZE;
+            }
+            // a tick is expired once it has fully elapsed, so every deadline in it is <= now
+            for (; lastTick < nowTick; lastTick++) {
+                expire(wheel.get((int)(lastTick & MASK)), now);
+            }
+            long sleep = (lastTick + 1) * TICK_MILLIS - now();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                }
+                catch (InterruptedException ie) {
+                    // spurious, keep ticking
+                }
+            }
+        }
+    }
+
+    private void insert(Timer t) {
+        wheel.get((int)((t.deadline / TICK_MILLIS) & MASK)).add(t);
+    }
+
+    private void expire(List<Timer> slot, long now) {
+        // backwards, so timers re-inserted into this slot are not revisited
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            Timer t = slot.get(i);
+            if (t.deadline > now) {
+                continue;
+            }
+            int last = slot.size() - 1;
+            slot.set(i, slot.get(last));
+            slot.remove(last);
+            boolean active;
+            try {
+                active = t.fire();
+            }
+            catch (Throwable e) {
+                // an Error thrown by one timer must not stop the others
+                active = true;
+            }
+            if (!active) {
+                timers--;
+                continue;
+            }
+            do {
+                t.deadline += t.interval;
+            } while (t.deadline <= now);
+            insert(t);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.dshops.metrics;
+
+/** Activity tracking for a series held in the static PercentileTimer/EventBucket maps, see SeriesEviction.
+ *  touch() costs a volatile read per sample, the flag is only written once per sweep.
+ * */
+abstract class TrackedSeries {
+    private volatile boolean touched = true;
+    private int idleSweeps;               // sweeper thread only
+    volatile boolean evicted;
+    // the limiter that admitted the series, released on eviction
+    CardinalityLimiter limiter = CardinalityLimiter.NONE;
+
+    final void touch() {
+        if (!touched) {
+            touched = true;
+        }
+    }
+
+    /** @return the number of consecutive sweeps the series has not been updated */
+    final int sweep() {
+        if (touched) {
+            touched = false;
+            idleSweeps = 0;
+        }
+        else {
+            idleSweeps++;
+        }
+        return idleSweeps;
+    }
+
+    final int idleSweeps() {
+        return idleSweeps;
+    }
+
+    /** Reports whatever was collected so far, partial buffers included, invoked once the series has been evicted. */
+    abstract void flushPartial();
+}
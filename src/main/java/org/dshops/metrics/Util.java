@@ -1,22 +1,9 @@
 package org.dshops.metrics;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
 class Util {
 
-	public static Map<String,String> buildTags(final String...tags) {
-	    if (tags == null) {
-	        return Collections.EMPTY_MAP;
-	    }
-		final Map<String,String> map = new HashMap<String,String>();
-    	if (tags.length % 2 != 0) {
-    		throw new IllegalArgumentException("corrupted tags arguments, must be name/value,name/value, tags provided not divisiable by 2!");
-    	}
-    	for (int i = 0; i < tags.length; ) {
-    		map.put(tags[i++],tags[i++]);
-    	}
-    	return map;
+	/** @return the (interned) TagSet for name/value,name/value.. pairs, see TagSet.of(String...) */
+	public static TagSet buildTags(final String...tags) {
+	    return TagSet.of(tags);
 	}
 }
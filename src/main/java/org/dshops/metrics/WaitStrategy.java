@@ -0,0 +1,15 @@
+package org.dshops.metrics;
+
+/** How async dispatch consumer threads wait for events, see MetricRegistry.Builder.withAsyncDispatch(..).
+ *
+ *  BLOCKING  - park on a lock until signalled, lowest cpu, publishers pay a signal when a consumer is parked.
+ *  SLEEPING  - spin briefly, then sleep in short intervals, low cpu, up to ~100us added latency.
+ *  YIELDING  - spin briefly, then Thread.yield(), low latency, burns a core when idle.
+ *  BUSY_SPIN - never yields, lowest latency, dedicates a core per consumer thread.
+ * */
+public enum WaitStrategy {
+    BLOCKING,
+    SLEEPING,
+    YIELDING,
+    BUSY_SPIN
+}
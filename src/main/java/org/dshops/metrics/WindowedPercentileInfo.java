@@ -0,0 +1,59 @@
+package org.dshops.metrics;
+
+import java.util.Arrays;
+
+/** PercentileTimer engine for the time-windowed mode (see PercentileTimer.initReportingWindow).
+ *  Samples are kept in a bounded SampleReservoir, and percentiles are reported once per window, regardless of
+ *  how many samples were seen.  .count reports the actual number of samples in the window.
+ * */
+class WindowedPercentileInfo extends PercentileRecorder {
+    private final SampleReservoir reservoir;
+    private final MetricRegistry registry;
+    private final int[] percentilesToReport;
+    private final MetricKey key;
+    // guarded by this, re-used between windows
+    private final long[] values;
+
+    WindowedPercentileInfo(MetricRegistry registry, int reservoirSize, int[] percentilesToReport, MetricKey key) {
+        this.registry = registry;
+        this.percentilesToReport = percentilesToReport;
+        this.key = key;
+        reservoir = new SampleReservoir(reservoirSize, false);
+        values = new long[reservoirSize];
+    }
+
+    @Override
+    public void update(long value) {
+        touch();
+        reservoir.update(value);
+    }
+
+    @Override
+    void flushPartial() {
+        flush();
+    }
+
+    @Override
+    public void flush() {
+        synchronized (this) {
+            int size = reservoir.drain(values);
+            if (size == 0) {
+                return;
+            }
+            Arrays.sort(values, 0, size);
+            long ts = System.currentTimeMillis();
+            for (int p : percentilesToReport) {
+                long percentileValue = values[(int)(PercentileInfo.percentileFraction(p) * size)];
+                if (registry != null) {
+                    registry.postEvent(key.getName() + ".p"+p, ts, key.getTags(), percentileValue);
+                }
+                else {
+                    System.out.println(key.getName()+ ".p" +p+"=="+ percentileValue);
+                }
+            }
+            if (registry != null) {
+                registry.postEvent(key.getName() + ".count", ts, key.getTags(), reservoir.count);
+            }
+        }
+    }
+}
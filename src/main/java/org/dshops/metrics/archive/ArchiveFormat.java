@@ -0,0 +1,28 @@
+package org.dshops.metrics.archive;
+
+/** Layout of an archive (see ArchiveWriter):
+ *  <pre>
+ *  header:  int magic 'MRAW', byte version
+ *  records: byte type, then
+ *    STRING  varint length, utf-8 bytes                         id = strings defined so far
+ *    SERIES  varint name, varint tag count, (varint key, varint value)*, byte value type   id = series defined so far
+ *    BLOCK   varint series, varint points, varint zigzag first timestamp,
+ *            varint length, timestamp bits (count - 1 delta-of-deltas),
+ *            varint length, value bits (raw 64 bit first value, then xor (double) or delta-of-delta (long) per point)
+ *  </pre>
+ *  Every reference (string, series) is defined earlier in the same file, so a file is read in a single pass.
+ * */
+final class ArchiveFormat {
+    static final int MAGIC = 0x4D524157;
+    static final int VERSION = 1;
+
+    static final int STRING = 1;
+    static final int SERIES = 2;
+    static final int BLOCK = 3;
+
+    static final int LONG_VALUES = 0;
+    static final int DOUBLE_VALUES = 1;
+
+    private ArchiveFormat() {
+    }
+}
@@ -0,0 +1,189 @@
+package org.dshops.metrics.archive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dshops.metrics.DoubleEvent;
+import org.dshops.metrics.Event;
+import org.dshops.metrics.LongEvent;
+import org.dshops.metrics.TagSet;
+
+/**
+ * Streams the points of an archive written by ArchiveWriter (ArchiveListener), decoding one point per next(), without
+ * loading the archive:
+ * <pre>
+ *     try (ArchiveReader r = new ArchiveReader(Files.newInputStream(file))) {
+ *         while (r.next()) {
+ *             System.out.println(r.getName() + " " + r.getTags() + " " + r.getTimestamp() + " " + r.getDoubleValue());
+ *         }
+ *     }
+ * </pre>
+ * Points are returned block by block, i.e. grouped per series, in time order within a block, blocks in the order they
+ * were written.  A truncated archive (process died while writing) ends at its last complete block.
+ * */
+public class ArchiveReader implements AutoCloseable {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private final List<Series> series = new ArrayList<>();
+    private final BitReader timestamps = new BitReader();
+    private final BitReader values = new BitReader();
+    private final Codecs.Xor xor = new Codecs.Xor();
+    private Series current;
+    private int remaining;
+    private boolean first;
+    private long ts;
+    private long tsDelta;
+    private long value;
+    private long valueDelta;
+
+    private static final class Series {
+        final String name;
+        final TagSet tags;
+        final boolean dbl;
+
+        Series(String name, TagSet tags, boolean dbl) {
+            this.name = name;
+            this.tags = tags;
+            this.dbl = dbl;
+        }
+    }
+
+    public ArchiveReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (this.in.readInt() != ArchiveFormat.MAGIC) {
+            throw new IOException("not a metrics-raw archive");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != ArchiveFormat.VERSION) {
+            throw new IOException("unsupported archive version " + version);
+        }
+    }
+
+    /** advances to the next point
+     * @return false at the end of the archive */
+    public boolean next() throws IOException {
+        while (remaining == 0) {
+            if (!readRecord()) {
+                return false;
+            }
+        }
+        remaining--;
+        if (first) {
+            first = false;
+            value = values.readBits(64);
+            xor.first(value);
+            valueDelta = 0;
+            tsDelta = 0;
+            return true;
+        }
+        tsDelta += Codecs.readDod(timestamps);
+        ts += tsDelta;
+        if (current.dbl) {
+            value = xor.read(values);
+        }
+        else {
+            valueDelta += Codecs.readDod(values);
+            value += valueDelta;
+        }
+        return true;
+    }
+
+    // reads records up to (and including) the next block, false at the end
+    private boolean readRecord() throws IOException {
+        int type;
+        try {
+            type = in.read();
+            if (type < 0) {
+                return false;
+            }
+            switch (type) {
+                case ArchiveFormat.STRING:
+                    byte[] bytes = new byte[Codecs.readVarInt(in)];
+                    in.readFully(bytes);
+                    strings.add(new String(bytes, StandardCharsets.UTF_8));
+                    return true;
+                case ArchiveFormat.SERIES:
+                    String name = string(Codecs.readVarInt(in));
+                    String[] tags = new String[Codecs.readVarInt(in) * 2];
+                    for (int i = 0; i < tags.length; i++) {
+                        tags[i] = string(Codecs.readVarInt(in));
+                    }
+                    boolean dbl = in.readUnsignedByte() == ArchiveFormat.DOUBLE_VALUES;
+                    series.add(new Series(name, TagSet.of(tags), dbl));
+                    return true;
+                case ArchiveFormat.BLOCK:
+                    int id = Codecs.readVarInt(in);
+                    if (id >= series.size()) {
+                        throw new IOException("undefined series " + id);
+                    }
+                    int count = Codecs.readVarInt(in);
+                    long firstTs = Codecs.unzigzag(Codecs.readVarLong(in));
+                    int n = Codecs.readVarInt(in);
+                    in.readFully(timestamps.reset(n), 0, n);
+                    n = Codecs.readVarInt(in);
+                    in.readFully(values.reset(n), 0, n);
+                    current = series.get(id);
+                    ts = firstTs;
+                    first = true;
+                    remaining = count;
+                    return true;
+                default:
+                    throw new IOException("corrupt archive, record type " + type);
+            }
+        }
+        catch (EOFException e) {
+            // truncated, the last record was not completely written
+            remaining = 0;
+            return false;
+        }
+    }
+
+    private String string(int id) throws IOException {
+        if (id >= strings.size()) {
+            throw new IOException("undefined string " + id);
+        }
+        return strings.get(id);
+    }
+
+    public String getName() {
+        return current.name;
+    }
+
+    public TagSet getTags() {
+        return current.tags;
+    }
+
+    public long getTimestamp() {
+        return ts;
+    }
+
+    /** @return true if the point's value is a double (getDoubleValue), false for a long (getLongValue) */
+    public boolean isDouble() {
+        return current.dbl;
+    }
+
+    public long getLongValue() {
+        return current.dbl ? (long) Double.longBitsToDouble(value) : value;
+    }
+
+    public double getDoubleValue() {
+        return current.dbl ? Double.longBitsToDouble(value) : value;
+    }
+
+    /** @return the current point as an event */
+    public Event toEvent() {
+        return current.dbl ? new DoubleEvent(current.name, current.tags, ts, getDoubleValue())
+                           : new LongEvent(current.name, current.tags, ts, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,244 @@
+package org.dshops.metrics.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.dshops.metrics.DoubleEvent;
+import org.dshops.metrics.Event;
+import org.dshops.metrics.TagSet;
+
+/**
+ * Writes events into a compressed, columnar archive (see ArchiveReader to read it back).
+ *
+ * Points are buffered per series (name, tags and value type) and compressed as they arrive, into a block holding
+ * the series' timestamps (delta-of-delta) followed by its values (Gorilla style XOR for doubles, delta-of-delta for
+ * longs).  Names, tag keys and values are written once, into a string dictionary, and series once, as dictionary
+ * references, so a block only costs a few bytes beyond its points.  Regular timestamps and unchanged (or steadily
+ * changing) values take a bit each, typical metrics compress to 1-2 bytes per point.
+ *
+ * A block is written once it holds maxBlockPoints points, or by flushBlocks.  Points still buffered are lost if the
+ * process dies, bound that with flushBlocks(openedBefore) (ArchiveListener.Builder.withBlockAge).
+ * Not thread safe.
+ * */
+public class ArchiveWriter implements AutoCloseable {
+    private final DataOutputStream out;
+    private final CountingStream counter;
+    private final int maxBlockPoints;
+    private final Map<String,Integer> strings = new HashMap<>();
+    // name -> tags -> series, tags are (usually) interned TagSets, so the lookup does not allocate
+    private final Map<String,Map<Map<String,String>,SeriesPair>> series = new HashMap<>();
+    private final List<Block> open = new ArrayList<>();
+    private int seriesIds;
+    private long points;
+
+    /** @param maxBlockPoints points per block, larger blocks compress (slightly) better, and buffer more */
+    public ArchiveWriter(OutputStream out, int maxBlockPoints) throws IOException {
+        if (maxBlockPoints < 2)
+            throw new IllegalArgumentException("maxBlockPoints must be > 1");
+        // DataOutputStream.size() stops at Integer.MAX_VALUE, bytes are counted (as a long) below it
+        this.counter = new CountingStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out = new DataOutputStream(counter);
+        this.maxBlockPoints = maxBlockPoints;
+        this.out.writeInt(ArchiveFormat.MAGIC);
+        this.out.writeByte(ArchiveFormat.VERSION);
+    }
+
+    /** appends e to its series' block, NaN/infinite doubles are kept as is */
+    public void append(Event e) throws IOException {
+        boolean dbl = e instanceof DoubleEvent;
+        Block b = block(e, dbl);
+        long ts = e.getTimestamp();
+        long value = dbl ? Double.doubleToRawLongBits(e.getDoubleValue()) : e.getLongValue();
+        if (b.count == 0) {
+            b.openedAt = System.currentTimeMillis();
+            b.firstTs = ts;
+            b.prevTs = ts;
+            b.prevTsDelta = 0;
+            b.values.writeBits(value, 64);
+            b.prevValue = value;
+            b.prevValueDelta = 0;
+            b.xor.first(value);
+            open.add(b);
+        }
+        else {
+            long delta = ts - b.prevTs;
+            Codecs.writeDod(b.timestamps, delta - b.prevTsDelta);
+            b.prevTs = ts;
+            b.prevTsDelta = delta;
+            if (dbl) {
+                b.xor.write(b.values, value);
+            }
+            else {
+                long vd = value - b.prevValue;
+                Codecs.writeDod(b.values, vd - b.prevValueDelta);
+                b.prevValue = value;
+                b.prevValueDelta = vd;
+            }
+        }
+        points++;
+        if (++b.count == maxBlockPoints) {
+            writeBlock(b);
+            open.remove(b);
+        }
+    }
+
+    /** writes the blocks whose first point was appended before openedBefore (epoch millis), Long.MAX_VALUE for all */
+    public void flushBlocks(long openedBefore) throws IOException {
+        for (int i = open.size() - 1; i >= 0; i--) {
+            Block b = open.get(i);
+            if (b.openedAt < openedBefore) {
+                writeBlock(b);
+                int last = open.size() - 1;
+                open.set(i, open.get(last));
+                open.remove(last);
+            }
+        }
+        out.flush();
+    }
+
+    private Block block(Event e, boolean dbl) throws IOException {
+        Map<String,String> tags = e.getTags() == null ? TagSet.EMPTY : e.getTags();
+        Map<Map<String,String>,SeriesPair> byTags = series.get(e.getName());
+        if (byTags == null) {
+            byTags = new HashMap<>();
+            series.put(e.getName(), byTags);
+        }
+        SeriesPair pair = byTags.get(tags);
+        if (pair == null) {
+            pair = new SeriesPair();
+            byTags.put(tags, pair);
+        }
+        Block b = dbl ? pair.doubles : pair.longs;
+        if (b == null) {
+            b = new Block(defineSeries(e.getName(), tags, dbl));
+            if (dbl) {
+                pair.doubles = b;
+            }
+            else {
+                pair.longs = b;
+            }
+        }
+        return b;
+    }
+
+    // defines the strings and the series, tags sorted
+    private int defineSeries(String name, Map<String,String> tags, boolean dbl) throws IOException {
+        Map<String,String> sorted = tags instanceof TagSet ? tags : new TreeMap<>(tags);
+        int nameId = string(name);
+        int[] ids = new int[sorted.size() * 2];
+        int i = 0;
+        for (Map.Entry<String,String> t : sorted.entrySet()) {
+            ids[i++] = string(t.getKey());
+            ids[i++] = string(t.getValue() == null ? "" : t.getValue());
+        }
+        out.writeByte(ArchiveFormat.SERIES);
+        Codecs.writeVarLong(out, nameId);
+        Codecs.writeVarLong(out, sorted.size());
+        for (int id : ids) {
+            Codecs.writeVarLong(out, id);
+        }
+        out.writeByte(dbl ? ArchiveFormat.DOUBLE_VALUES : ArchiveFormat.LONG_VALUES);
+        return seriesIds++;
+    }
+
+    private int string(String s) throws IOException {
+        Integer id = strings.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.put(s, id);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(ArchiveFormat.STRING);
+            Codecs.writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+        return id;
+    }
+
+    private void writeBlock(Block b) throws IOException {
+        out.writeByte(ArchiveFormat.BLOCK);
+        Codecs.writeVarLong(out, b.id);
+        Codecs.writeVarLong(out, b.count);
+        Codecs.writeVarLong(out, Codecs.zigzag(b.firstTs));
+        Codecs.writeVarLong(out, b.timestamps.byteLength());
+        b.timestamps.writeTo(out);
+        Codecs.writeVarLong(out, b.values.byteLength());
+        b.values.writeTo(out);
+        b.timestamps.reset();
+        b.values.reset();
+        b.count = 0;
+    }
+
+    /** @return points appended */
+    public long getPoints() {
+        return points;
+    }
+
+    /** @return bytes written, blocks still open are not included */
+    public long getBytesWritten() {
+        return counter.count;
+    }
+
+    /** @return the number of series defined */
+    public int getSeriesCount() {
+        return seriesIds;
+    }
+
+    /** writes the open blocks, and closes the stream */
+    @Override
+    public void close() throws IOException {
+        flushBlocks(Long.MAX_VALUE);
+        out.close();
+    }
+
+    private static final class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class SeriesPair {
+        Block longs;
+        Block doubles;
+    }
+
+    private static final class Block {
+        final int id;
+        final BitWriter timestamps = new BitWriter(64);
+        final BitWriter values = new BitWriter(64);
+        final Codecs.Xor xor = new Codecs.Xor();
+        int count;
+        long openedAt;
+        long firstTs;
+        long prevTs;
+        long prevTsDelta;
+        long prevValue;
+        long prevValueDelta;
+
+        Block(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.dshops.metrics.archive;
+
+import java.io.EOFException;
+
+/** Reads a bit stream written by BitWriter. */
+final class BitReader {
+    private byte[] buf;
+    private int length;
+    private long bits;
+
+    BitReader() {
+        buf = new byte[0];
+    }
+
+    /** @return the buffer to read length bytes into, re-used across blocks */
+    byte[] reset(int length) {
+        if (buf.length < length) {
+            buf = new byte[Math.max(length, buf.length * 2)];
+        }
+        this.length = length;
+        this.bits = 0;
+        return buf;
+    }
+
+    boolean readBit() throws EOFException {
+        return readBits(1) != 0;
+    }
+
+    /** @return the next n (1..64) bits */
+    long readBits(int n) throws EOFException {
+        if (bits + n > (long) length << 3) {
+            throw new EOFException("truncated block");
+        }
+        long v = 0;
+        while (n > 0) {
+            int index = (int) (bits >>> 3);
+            int avail = 8 - (int) (bits & 7);
+            int take = Math.min(avail, n);
+            int chunk = (buf[index] >>> (avail - take)) & ((1 << take) - 1);
+            v = (v << take) | chunk;
+            bits += take;
+            n -= take;
+        }
+        return v;
+    }
+}
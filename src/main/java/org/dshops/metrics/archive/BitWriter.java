@@ -0,0 +1,53 @@
+package org.dshops.metrics.archive;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Growable bit stream, bits are written most significant first. */
+final class BitWriter {
+    private byte[] buf;
+    private long bits;
+
+    BitWriter(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /** writes the low n (1..64) bits of v */
+    void writeBits(long v, int n) {
+        ensure(n);
+        while (n > 0) {
+            int index = (int) (bits >>> 3);
+            int free = 8 - (int) (bits & 7);
+            int take = Math.min(free, n);
+            int chunk = (int) ((v >>> (n - take)) & ((1 << take) - 1));
+            buf[index] |= chunk << (free - take);
+            bits += take;
+            n -= take;
+        }
+    }
+
+    private void ensure(int n) {
+        int needed = (int) ((bits + n + 7) >>> 3);
+        if (needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+        }
+    }
+
+    int byteLength() {
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.write(buf, 0, byteLength());
+    }
+
+    void reset() {
+        Arrays.fill(buf, 0, byteLength(), (byte) 0);
+        bits = 0;
+    }
+}
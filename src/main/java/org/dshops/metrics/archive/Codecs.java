@@ -0,0 +1,150 @@
+package org.dshops.metrics.archive;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/** The archive's encodings, each encoder next to its decoder.
+ *
+ *  Delta-of-delta (timestamps and long values): the change of the delta between consecutive values, written as
+ *  <pre>
+ *  0                     dod == 0
+ *  10    + 7 bits        dod in [-64, 63]
+ *  110   + 9 bits        dod in [-256, 255]
+ *  1110  + 12 bits       dod in [-2048, 2047]
+ *  11110 + 32 bits       dod fits an int
+ *  11111 + 64 bits
+ *  </pre>
+ *  XOR (double values, as in Facebook's Gorilla): the xor with the previous value,
+ *  <pre>
+ *  0                                                        same value
+ *  10 + meaningful bits                                     fits the previous leading/trailing zero window
+ *  11 + 5 bits leading zeros + 6 bits length-1 + meaningful bits
+ *  </pre>
+ *  Integers outside the bit streams are unsigned LEB128 varints, signed ones zigzag encoded first.
+ * */
+final class Codecs {
+    private static final int[] DOD_BITS = {7, 9, 12, 32, 64};
+
+    private Codecs() {
+    }
+
+    static void writeDod(BitWriter w, long dod) {
+        if (dod == 0) {
+            w.writeBit(false);
+            return;
+        }
+        for (int i = 0; i < DOD_BITS.length; i++) {
+            int n = DOD_BITS[i];
+            if (n == 64 || (dod >= -(1L << (n - 1)) && dod < (1L << (n - 1)))) {
+                // i + 1 ones, and a terminating zero unless it is the last (64 bit) form
+                int prefixBits = i == DOD_BITS.length - 1 ? i + 1 : i + 2;
+                long prefix = i == DOD_BITS.length - 1 ? (1L << prefixBits) - 1 : ((1L << (i + 1)) - 1) << 1;
+                w.writeBits(prefix, prefixBits);
+                w.writeBits(dod, n);
+                return;
+            }
+        }
+    }
+
+    static long readDod(BitReader r) throws EOFException {
+        int ones = 0;
+        while (ones < DOD_BITS.length && r.readBit()) {
+            ones++;
+        }
+        if (ones == 0) {
+            return 0;
+        }
+        int n = DOD_BITS[ones - 1];
+        long v = r.readBits(n);
+        // sign extend
+        return n == 64 ? v : (v << (64 - n)) >> (64 - n);
+    }
+
+    /** xor encoder/decoder state, one per series block */
+    static final class Xor {
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+
+        void first(long bits) {
+            previous = bits;
+            leading = -1;
+        }
+
+        void write(BitWriter w, long bits) {
+            long x = bits ^ previous;
+            previous = bits;
+            if (x == 0) {
+                w.writeBit(false);
+                return;
+            }
+            w.writeBit(true);
+            int lead = Math.min(31, Long.numberOfLeadingZeros(x));
+            int trail = Long.numberOfTrailingZeros(x);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                w.writeBit(false);
+                w.writeBits(x >>> trailing, 64 - leading - trailing);
+                return;
+            }
+            int significant = 64 - lead - trail;
+            w.writeBit(true);
+            w.writeBits(lead, 5);
+            w.writeBits(significant - 1, 6);
+            w.writeBits(x >>> trail, significant);
+            leading = lead;
+            trailing = trail;
+        }
+
+        long read(BitReader r) throws EOFException {
+            if (!r.readBit()) {
+                return previous;
+            }
+            if (r.readBit()) {
+                leading = (int) r.readBits(5);
+                int significant = (int) r.readBits(6) + 1;
+                trailing = 64 - leading - significant;
+            }
+            long x = r.readBits(64 - leading - trailing) << trailing;
+            previous ^= x;
+            return previous;
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        long v = readVarLong(in);
+        if (v < 0 || v > Integer.MAX_VALUE) {
+            throw new IOException("malformed varint");
+        }
+        return (int) v;
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
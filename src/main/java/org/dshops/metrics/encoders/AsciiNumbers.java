@@ -0,0 +1,63 @@
+package org.dshops.metrics.encoders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Writes numbers as ASCII into a ByteBuffer without allocating, each encoder holds its own (not thread safe) instance. */
+final class AsciiNumbers {
+    static final int MAX_LENGTH = 32;
+    private static final int FRACTION_DIGITS = 9;
+    private static final long FRACTION_SCALE = 1_000_000_000L;
+    // doubles with a magnitude in [MIN_FIXED, MAX_FIXED) are written in fixed point, others via Double.toString (allocates)
+    private static final double MAX_FIXED = Long.MAX_VALUE / FRACTION_SCALE;
+    private static final double MIN_FIXED = 1e-9;
+
+    private final byte[] digits = new byte[20];
+
+    void putLong(ByteBuffer out, long v) {
+        if (v == Long.MIN_VALUE) {
+            out.put("-9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (v < 0) {
+            out.put((byte) '-');
+            v = -v;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        out.put(digits, pos, digits.length - pos);
+    }
+
+    /** writes v with up to 9 fraction digits (rounded, trailing zeros dropped), the caller filters NaN/infinite values */
+    void putDouble(ByteBuffer out, double v) {
+        double abs = Math.abs(v);
+        if (abs != 0 && (abs < MIN_FIXED || abs >= MAX_FIXED)) {
+            out.put(Double.toString(v).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        long scaled = Math.round(abs * FRACTION_SCALE);
+        if (v < 0 && scaled != 0) {
+            out.put((byte) '-');
+        }
+        putLong(out, scaled / FRACTION_SCALE);
+        long fraction = scaled % FRACTION_SCALE;
+        if (fraction == 0) {
+            return;
+        }
+        int len = FRACTION_DIGITS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            len--;
+        }
+        out.put((byte) '.');
+        int pos = digits.length;
+        for (int i = 0; i < len; i++) {
+            digits[--pos] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        out.put(digits, pos, len);
+    }
+}
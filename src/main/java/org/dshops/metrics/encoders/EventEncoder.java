@@ -0,0 +1,142 @@
+package org.dshops.metrics.encoders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.dshops.metrics.DoubleEvent;
+import org.dshops.metrics.Event;
+import org.dshops.metrics.TagSet;
+
+/** Encodes events into a (typically direct, re-used) ByteBuffer, in a backend's line protocol.
+ *
+ *  The escaped series key (prefix + name + sorted tags) of each series is built once and cached as bytes, so encoding an
+ *  event only formats its timestamp and value, without allocating.  The cache is keyed per name and tags, i.e. per
+ *  MetricKey, and holds up to MAX_SERIES series (it is cleared past that).
+ *  Events with a NaN or infinite value are skipped, as the backends do not accept them.
+ *
+ *  Encoders are not thread safe, use one per writer thread.
+ * */
+public abstract class EventEncoder {
+    static final int MAX_SERIES = 100_000;
+
+    private final String prefix;
+    // name -> tags -> series key, tags are (usually) interned TagSets, so neither lookup allocates
+    private final Map<String,Map<Map<String,String>,SeriesKey>> series = new HashMap<>();
+    private int seriesCount;
+    protected final AsciiNumbers numbers = new AsciiNumbers();
+
+    /** @param prefix prepended to every event name, null or empty for none */
+    protected EventEncoder(String prefix) {
+        this.prefix = prefix == null ? "" : prefix;
+    }
+
+    /** The cached bytes of a series, head is written before, and tail after, the per event fields. */
+    protected static final class SeriesKey {
+        final byte[] head;
+        final byte[] tail;
+
+        protected SeriesKey(String head, String tail) {
+            this.head = head.getBytes(StandardCharsets.UTF_8);
+            this.tail = tail.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Builds the series key of name (prefixed) and tags (sorted), invoked once per series. */
+    protected abstract SeriesKey seriesKey(String name, Map<String,String> tags);
+
+    /** writes e, head and tail are already written by encode */
+    protected abstract void encodeFields(SeriesKey key, Event e, ByteBuffer out);
+
+    /** Appends e to out, out needs room for the series key plus 72 bytes (the widest timestamp/value).
+     * @return false if out does not have room for e, nothing is written then */
+    public boolean encode(Event e, ByteBuffer out) {
+        if (isDouble(e) && !isFinite(e.getDoubleValue())) {
+            return true;
+        }
+        SeriesKey key = lookup(e);
+        if (out.remaining() < key.head.length + key.tail.length + 2 * AsciiNumbers.MAX_LENGTH + 8) {
+            return false;
+        }
+        out.put(key.head);
+        encodeFields(key, e, out);
+        out.put(key.tail);
+        return true;
+    }
+
+    /** Appends events[from..count) to out, stopping once out is full.
+     * @return the number of events encoded (or skipped), the remaining events are to be encoded into the next buffer */
+    public int encode(Event[] events, int from, int count, ByteBuffer out) {
+        int i = from;
+        while (i < count && encode(events[i], out)) {
+            i++;
+        }
+        return i - from;
+    }
+
+    /** @return the number of series keys cached */
+    public int cachedSeries() {
+        return seriesCount;
+    }
+
+    private SeriesKey lookup(Event e) {
+        Map<String,String> tags = e.getTags() == null ? TagSet.EMPTY : e.getTags();
+        Map<Map<String,String>,SeriesKey> byTags = series.get(e.getName());
+        SeriesKey key = byTags == null ? null : byTags.get(tags);
+        if (key == null) {
+            if (seriesCount >= MAX_SERIES) {
+                series.clear();
+                seriesCount = 0;
+                byTags = null;
+            }
+            if (byTags == null) {
+                byTags = new HashMap<>();
+                series.put(e.getName(), byTags);
+            }
+            // TagSets are already sorted, other maps are sorted once here
+            key = seriesKey(prefix + e.getName(), tags instanceof TagSet ? tags : new TreeMap<>(tags));
+            byTags.put(tags, key);
+            seriesCount++;
+        }
+        return key;
+    }
+
+    protected static boolean isDouble(Event e) {
+        return e instanceof DoubleEvent;
+    }
+
+    private static boolean isFinite(double d) {
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+    }
+
+    /** writes the value of e, as a whole number or floating point (per the event type) */
+    protected void putValue(Event e, ByteBuffer out) {
+        if (isDouble(e)) {
+            numbers.putDouble(out, e.getDoubleValue());
+        }
+        else {
+            numbers.putLong(out, e.getLongValue());
+        }
+    }
+
+    /** @return s with every character not accepted by accept replaced by replacement */
+    static String sanitize(String s, CharFilter accept, char replacement) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!accept.accept(c)) {
+                if (sb == null) {
+                    sb = new StringBuilder(s);
+                }
+                sb.setCharAt(i, replacement);
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    interface CharFilter {
+        boolean accept(char c);
+    }
+}
@@ -0,0 +1,49 @@
+package org.dshops.metrics.encoders;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.dshops.metrics.Event;
+
+/** Graphite plaintext protocol, with graphite 1.1 tags, one line per event:
+ *  <pre>
+ *  name;tag1=v1;tag2=v2 12 1500000000
+ *  </pre>
+ *  Timestamps are in seconds.  Spaces (and in tags ; ~ =) are replaced with _, tags with empty values are left out.
+ * */
+public class GraphiteEncoder extends EventEncoder {
+
+    public GraphiteEncoder() {
+        this(null);
+    }
+
+    public GraphiteEncoder(String prefix) {
+        super(prefix);
+    }
+
+    @Override
+    protected SeriesKey seriesKey(String name, Map<String,String> tags) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(sanitize(name, c -> c > ' ' && c != ';', '_'));
+        for (Map.Entry<String,String> t : tags.entrySet()) {
+            if (t.getValue() == null || t.getValue().isEmpty()) {
+                continue;
+            }
+            sb.append(';').append(sanitize(t.getKey(), GraphiteEncoder::tagChar, '_'))
+              .append('=').append(sanitize(t.getValue(), GraphiteEncoder::tagChar, '_'));
+        }
+        sb.append(' ');
+        return new SeriesKey(sb.toString(), "\n");
+    }
+
+    private static boolean tagChar(char c) {
+        return c > ' ' && c != ';' && c != '~' && c != '=';
+    }
+
+    @Override
+    protected void encodeFields(SeriesKey key, Event e, ByteBuffer out) {
+        putValue(e, out);
+        out.put((byte) ' ');
+        numbers.putLong(out, e.getTimestamp() / 1000);
+    }
+}
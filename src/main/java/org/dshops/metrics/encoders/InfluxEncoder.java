@@ -0,0 +1,81 @@
+package org.dshops.metrics.encoders;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dshops.metrics.Event;
+
+/** Influx line protocol, one line per event:
+ *  <pre>
+ *  name,tag1=v1,tag2=v2 value=12i 1500000000000
+ *  name,tag1=v1,tag2=v2 value=0.25 1500000000000
+ *  </pre>
+ *  Whole numbers get the i (integer) suffix.  The timestamp precision must match the precision the lines are written
+ *  with (precision=ms, the default, or ns).  In nanosecond precision the event's sub-millisecond index
+ *  (see EventIndexingListener) is added to the timestamp, so events sharing a millisecond are not overwritten.
+ * */
+public class InfluxEncoder extends EventEncoder {
+    private final boolean nanos;
+
+    public InfluxEncoder() {
+        this(null, TimeUnit.MILLISECONDS);
+    }
+
+    /** @param precision MILLISECONDS or NANOSECONDS */
+    public InfluxEncoder(String prefix, TimeUnit precision) {
+        super(prefix);
+        if (precision != TimeUnit.MILLISECONDS && precision != TimeUnit.NANOSECONDS) {
+            throw new IllegalArgumentException("precision must be MILLISECONDS or NANOSECONDS");
+        }
+        this.nanos = precision == TimeUnit.NANOSECONDS;
+    }
+
+    @Override
+    protected SeriesKey seriesKey(String name, Map<String,String> tags) {
+        StringBuilder sb = new StringBuilder();
+        escape(sb, name, false);
+        for (Map.Entry<String,String> t : tags.entrySet()) {
+            if (t.getValue() == null || t.getValue().isEmpty()) {
+                // influx rejects empty tag values
+                continue;
+            }
+            sb.append(',');
+            escape(sb, t.getKey(), true);
+            sb.append('=');
+            escape(sb, t.getValue(), true);
+        }
+        sb.append(" value=");
+        return new SeriesKey(sb.toString(), "\n");
+    }
+
+    @Override
+    protected void encodeFields(SeriesKey key, Event e, ByteBuffer out) {
+        putValue(e, out);
+        if (!isDouble(e)) {
+            out.put((byte) 'i');
+        }
+        out.put((byte) ' ');
+        if (nanos) {
+            numbers.putLong(out, TimeUnit.MILLISECONDS.toNanos(e.getTimestamp()) + e.getIndex());
+        }
+        else {
+            numbers.putLong(out, e.getTimestamp());
+        }
+    }
+
+    // measurements escape commas and spaces, tag keys/values also escape equal signs
+    private static void escape(StringBuilder sb, String s, boolean tag) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == ' ' || (tag && c == '=')) {
+                sb.append('\\');
+            }
+            else if (c == '\n') {
+                c = ' ';
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+}
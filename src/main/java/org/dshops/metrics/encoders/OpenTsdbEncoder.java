@@ -0,0 +1,49 @@
+package org.dshops.metrics.encoders;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.dshops.metrics.Event;
+
+/** OpenTSDB telnet protocol, one put per event:
+ *  <pre>
+ *  put name 1500000000000 12 tag1=v1 tag2=v2
+ *  </pre>
+ *  Timestamps are in milliseconds.  Characters OpenTSDB does not accept (anything but letters, digits, - _ . /) are
+ *  replaced with _.  OpenTSDB requires at least one tag per data point, the registry tags (host..) usually provide it.
+ * */
+public class OpenTsdbEncoder extends EventEncoder {
+
+    public OpenTsdbEncoder() {
+        this(null);
+    }
+
+    public OpenTsdbEncoder(String prefix) {
+        super(prefix);
+    }
+
+    private static boolean tsdbChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.' || c == '/';
+    }
+
+    @Override
+    protected SeriesKey seriesKey(String name, Map<String,String> tags) {
+        StringBuilder tail = new StringBuilder();
+        for (Map.Entry<String,String> t : tags.entrySet()) {
+            if (t.getValue() == null || t.getValue().isEmpty()) {
+                continue;
+            }
+            tail.append(' ').append(sanitize(t.getKey(), OpenTsdbEncoder::tsdbChar, '_'))
+                .append('=').append(sanitize(t.getValue(), OpenTsdbEncoder::tsdbChar, '_'));
+        }
+        tail.append('\n');
+        return new SeriesKey("put " + sanitize(name, OpenTsdbEncoder::tsdbChar, '_') + " ", tail.toString());
+    }
+
+    @Override
+    protected void encodeFields(SeriesKey key, Event e, ByteBuffer out) {
+        numbers.putLong(out, e.getTimestamp());
+        out.put((byte) ' ');
+        putValue(e, out);
+    }
+}
@@ -0,0 +1,264 @@
+package org.dshops.metrics.listeners;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dshops.metrics.BatchEventListener;
+import org.dshops.metrics.Event;
+
+/**
+ * Base class for listeners writing events to a backend in batches, on their own thread.
+ *
+ * Events are queued (bounded, see Policy.withQueueSize, events not fitting are dropped and counted), and handed to
+ * write(batch, count) once any of the policies triggers:
+ * <ul>
+ * <li>size: the batch holds Policy.withMaxEvents events</li>
+ * <li>bytes: the estimated size (estimateSize(event)) of the batch reaches Policy.withMaxBytes</li>
+ * <li>linger: Policy.withLinger has elapsed since the first event of the batch was taken, 0 writes the events
+ *     available as soon as the queue is drained</li>
+ * </ul>
+ * Subclasses implement write(..), and call start() once constructed.  On stop() queued events are written first
+ * (for up to 2 seconds), then onStop() is invoked.
+ * */
+public abstract class AbstractBatchingListener implements BatchEventListener {
+    // how often a waiting writer checks for stop
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final BlockingQueue<Event> queue;
+    private final Policy policy;
+    private final Event[] batch;
+    private volatile int batchCount;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    protected Thread runThread = null;
+    protected volatile boolean stopRequested = false;
+
+    /** Batching policies, defaults: queue 10,000 events, batches of 500 events, no byte limit, 1s linger, no blocking offer. */
+    public static class Policy {
+        private int queueSize = 10_000;
+        private int maxEvents = 500;
+        private long maxBytes = 0;
+        private long lingerMillis = 1000;
+        private long offerTimeMillis = 0;
+
+        /** @param queueSize max events queued, not yet written */
+        public Policy withQueueSize(int queueSize) {
+            if (queueSize < 1)
+                throw new IllegalArgumentException("queueSize must be > 0");
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        /** @param maxEvents write once a batch holds this many events */
+        public Policy withMaxEvents(int maxEvents) {
+            if (maxEvents < 1)
+                throw new IllegalArgumentException("maxEvents must be > 0");
+            this.maxEvents = maxEvents;
+            return this;
+        }
+
+        /** @param maxBytes write once the (estimated) size of a batch reaches this, 0 for no limit */
+        public Policy withMaxBytes(long maxBytes) {
+            if (maxBytes < 0)
+                throw new IllegalArgumentException("maxBytes must be >= 0");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /** @param linger max time a partial batch waits for more events, 0 writes as soon as the queue is drained */
+        public Policy withLinger(long linger, TimeUnit unit) {
+            if (linger < 0)
+                throw new IllegalArgumentException("linger must be >= 0");
+            this.lingerMillis = unit.toMillis(linger);
+            return this;
+        }
+
+        /** @param offerTimeMillis time onEvent may block on a full queue, before dropping the event, 0 to never block */
+        public Policy withOfferTime(long offerTimeMillis) {
+            this.offerTimeMillis = offerTimeMillis;
+            return this;
+        }
+    }
+
+    protected AbstractBatchingListener(Policy policy) {
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<>(policy.queueSize);
+        this.batch = new Event[policy.maxEvents];
+    }
+
+    /** Writes events[0..count) to the backend, invoked on the listener's thread only.
+     *  The array is re-used once this returns, a failure (exception) drops the batch, counted by getFailedBatches().
+     * @param events the batch
+     * @param count number of events in the batch
+     * */
+    protected abstract void write(Event[] events, int count) throws Exception;
+
+    /** @return the estimated serialized size of e, used by the bytes policy (name + tags + value) */
+    protected int estimateSize(Event e) {
+        int size = e.getName().length() + 24;
+        Map<String,String> tags = e.getTags();
+        if (tags != null) {
+            for (Map.Entry<String,String> t : tags.entrySet()) {
+                size += t.getKey().length() + (t.getValue() == null ? 0 : t.getValue().length()) + 2;
+            }
+        }
+        return size;
+    }
+
+    /** invoked on the listener's thread while no events are queued (at least every 100ms), e.g. to retry or replay */
+    protected void onIdle() throws Exception {
+    }
+
+    /** invoked on stop(), once queued events are written, to release the backend (connections, files..) */
+    protected void onStop() {
+    }
+
+    /** starts the listener's thread */
+    protected void start() {
+        runThread = new Thread(this::run);
+        runThread.setName("metric-raw-" + getClass().getSimpleName());
+        runThread.setDaemon(true);
+        runThread.start();
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        offer(e);
+    }
+
+    @Override
+    public void onEvents(Event[] events, int count) {
+        for (int i = 0; i < count; i++) {
+            offer(events[i]);
+        }
+    }
+
+    private void offer(Event e) {
+        boolean queued;
+        if (policy.offerTimeMillis > 0) {
+            try {
+                queued = queue.offer(e, policy.offerTimeMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        }
+        else {
+            queued = queue.offer(e);
+        }
+        if (!queued) {
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        int n = 0;
+        long bytes = 0;
+        long deadline = 0;
+        try {
+            while (!stopRequested || !queue.isEmpty()) {
+                long wait = n == 0 ? IDLE_POLL_MILLIS : Math.max(0, Math.min(IDLE_POLL_MILLIS, deadline - System.currentTimeMillis()));
+                Event e = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                if (e == null && n == 0) {
+                    idle();
+                }
+                while (e != null) {
+                    if (n == 0) {
+                        deadline = System.currentTimeMillis() + policy.lingerMillis;
+                    }
+                    batch[n++] = e;
+                    if (policy.maxBytes > 0) {
+                        bytes += estimateSize(e);
+                    }
+                    batchCount = n;
+                    if (n == batch.length || (policy.maxBytes > 0 && bytes >= policy.maxBytes)) {
+                        break;
+                    }
+                    e = queue.poll();
+                }
+                if (n > 0 && (n == batch.length
+                              || (policy.maxBytes > 0 && bytes >= policy.maxBytes)
+                              || System.currentTimeMillis() >= deadline
+                              || stopRequested)) {
+                    flush(n);
+                    n = 0;
+                    bytes = 0;
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            // stop timed out
+        }
+        finally {
+            if (n > 0) {
+                flush(n);
+            }
+        }
+    }
+
+    private void idle() {
+        try {
+            onIdle();
+        }
+        catch (Exception ex) {
+            // retried on the next idle poll
+        }
+    }
+
+    private void flush(int n) {
+        try {
+            write(batch, n);
+        }
+        catch (Exception ex) {
+            failedBatches.increment();
+        }
+        finally {
+            for (int i = 0; i < n; i++) {
+                batch[i] = null;
+            }
+            batchCount = 0;
+        }
+    }
+
+    @Override
+    public int eventsBuffered() {
+        return queue.size() + batchCount;
+    }
+
+    /** @return events dropped, because the queue was full (or counted by the subclass, see countDropped) */
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    /** counts events the subclass dropped, e.g. because the backend could not take them */
+    protected void countDropped(int events) {
+        dropped.add(events);
+    }
+
+    /** @return batches whose write failed */
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    @Override
+    public void stop() {
+        if (runThread != null) {
+            stopRequested = true;
+            try {
+                runThread.join(2000);
+                if (runThread.isAlive()) {
+                    runThread.interrupt();
+                    runThread.join(100);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        onStop();
+    }
+}
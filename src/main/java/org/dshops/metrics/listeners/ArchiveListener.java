@@ -0,0 +1,191 @@
+package org.dshops.metrics.listeners;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dshops.metrics.Event;
+import org.dshops.metrics.archive.ArchiveWriter;
+
+/**
+ * Archives events to local files, in the compressed columnar format of ArchiveWriter (typically 1-2 bytes per point,
+ * read back with ArchiveReader).
+ * <pre>
+ *     registry.addEventListener(new ArchiveListener.Builder(Paths.get("/var/metrics")).withMaxFileSize({@code 64 << 20})
+ *                                                                                  .withMaxFiles(48)
+ *                                                                                  .build());
+ * </pre>
+ * Files are named metrics-[start time]-[n].mraw, each is self contained (its own dictionary).  A new file is started
+ * once the current one reaches withMaxFileSize, the oldest files past withMaxFiles are deleted.  Blocks are written
+ * once full (withMaxBlockPoints) or withBlockAge after their first point, which bounds the points lost if the process
+ * dies.
+ * */
+public class ArchiveListener extends AbstractBatchingListener {
+    private static final String PREFIX = "metrics-";
+    private static final String SUFFIX = ".mraw";
+
+    private final Path dir;
+    private final int maxBlockPoints;
+    private final long blockAgeMillis;
+    private final long maxFileSize;
+    private final int maxFiles;
+    // listener thread only
+    private ArchiveWriter writer;
+    private Path file;
+    private int files;
+    private long lastFlush;
+
+    public static class Builder {
+        private final Path dir;
+        private Policy policy = new Policy();
+        private int maxBlockPoints = 1024;
+        private long blockAgeMillis = TimeUnit.MINUTES.toMillis(5);
+        private long maxFileSize = 64 << 20;
+        private int maxFiles = 0;
+
+        /** @param dir the archive directory, created if missing */
+        public Builder(Path dir) {
+            this.dir = dir;
+        }
+
+        public Builder withPolicy(Policy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /** @param points points per series block (default 1024) */
+        public Builder withMaxBlockPoints(int points) {
+            if (points < 2)
+                throw new IllegalArgumentException("points must be > 1");
+            this.maxBlockPoints = points;
+            return this;
+        }
+
+        /** @param age max time a block stays open (buffered), default 5 minutes */
+        public Builder withBlockAge(long age, TimeUnit unit) {
+            if (unit.toMillis(age) <= 0)
+                throw new IllegalArgumentException("age must be >= 1ms");
+            this.blockAgeMillis = unit.toMillis(age);
+            return this;
+        }
+
+        /** @param bytes size at which a new file is started (default 64mb) */
+        public Builder withMaxFileSize(long bytes) {
+            if (bytes < 1024)
+                throw new IllegalArgumentException("maxFileSize must be >= 1024");
+            this.maxFileSize = bytes;
+            return this;
+        }
+
+        /** @param files max archive files kept in dir, the oldest are deleted, 0 (default) to keep all */
+        public Builder withMaxFiles(int files) {
+            this.maxFiles = files;
+            return this;
+        }
+
+        public ArchiveListener build() throws IOException {
+            Files.createDirectories(dir);
+            return new ArchiveListener(this);
+        }
+    }
+
+    private ArchiveListener(Builder b) {
+        super(b.policy);
+        this.dir = b.dir;
+        this.maxBlockPoints = b.maxBlockPoints;
+        this.blockAgeMillis = b.blockAgeMillis;
+        this.maxFileSize = b.maxFileSize;
+        this.maxFiles = b.maxFiles;
+        start();
+    }
+
+    @Override
+    protected void write(Event[] events, int count) throws IOException {
+        if (writer == null || writer.getBytesWritten() >= maxFileSize) {
+            roll();
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                writer.append(events[i]);
+            }
+        }
+        catch (IOException e) {
+            closeWriter();
+            throw e;
+        }
+        flushAged();
+    }
+
+    @Override
+    protected void onIdle() throws IOException {
+        flushAged();
+    }
+
+    private void flushAged() throws IOException {
+        long now = System.currentTimeMillis();
+        // blocks are checked at most every second
+        if (writer != null && now - lastFlush >= Math.min(1000, blockAgeMillis)) {
+            lastFlush = now;
+            writer.flushBlocks(now - blockAgeMillis);
+        }
+    }
+
+    // closes the current file, and starts the next one
+    private void roll() throws IOException {
+        closeWriter();
+        file = dir.resolve(String.format("%s%tY%<tm%<td-%<tH%<tM%<tS-%d%s", PREFIX, System.currentTimeMillis(), files++, SUFFIX));
+        writer = new ArchiveWriter(Files.newOutputStream(file), maxBlockPoints);
+        if (maxFiles > 0) {
+            deleteOldest();
+        }
+    }
+
+    private void deleteOldest() throws IOException {
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                archives.add(p);
+            }
+        }
+        // by start time, the current file is the newest
+        archives.sort((a, b) -> {
+            try {
+                return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+            }
+            catch (IOException e) {
+                return a.compareTo(b);
+            }
+        });
+        archives.remove(file);
+        archives.add(file);
+        for (int i = 0; i < archives.size() - maxFiles; i++) {
+            Files.deleteIfExists(archives.get(i));
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            }
+            catch (IOException e) {
+                // the file ends at its last complete block
+            }
+            writer = null;
+        }
+    }
+
+    /** @return the file being written, null before the first batch */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    protected void onStop() {
+        closeWriter();
+    }
+}
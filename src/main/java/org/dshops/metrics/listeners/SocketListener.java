@@ -0,0 +1,504 @@
+package org.dshops.metrics.listeners;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dshops.metrics.Event;
+import org.dshops.metrics.encoders.EventEncoder;
+import org.dshops.metrics.encoders.InfluxEncoder;
+
+/**
+ * Writes events to a backend over a non-blocking TCP or UDP channel, encoded by an EventEncoder (Influx line protocol
+ * by default, see the encoders package).
+ * <pre>
+ *     registry.addEventListener(new SocketListener.Builder("influx.host", 8089)
+ *                                                 .withProtocol(Protocol.UDP)
+ *                                                 .withEncoder(new InfluxEncoder())
+ *                                                 .build());
+ * </pre>
+ * Batches (see AbstractBatchingListener.Policy) are encoded into pre-allocated direct buffers:
+ * <ul>
+ * <li>TCP: the batch is encoded into up to withBufferSize bytes of buffers, and written with one gathering write.
+ *     Bytes the backend does not take within withWriteTimeout stay pending, the next batch is dropped (counted) until
+ *     they are written, so a slow backend never grows memory.  Pending bytes discarded with a failed connection (or on
+ *     stop) are counted as dropped events too.  A failed connection is re-established, with an
+ *     exponential backoff, batches arriving while disconnected are dropped (counted), or spooled.</li>
+ * <li>UDP: events are packed into datagrams of up to withDatagramSize bytes (default 1432, fits an ethernet MTU),
+ *     never splitting an event.  Datagrams the socket can not take immediately are dropped (counted), datagrams lost
+ *     once sent (by the network, or the receiver's socket buffer) are not seen, nor counted.</li>
+ * </ul>
+ * onEvent only queues the event (dropped when the queue is full), it never blocks, unless the Policy sets an offer time.
+ *
+ * With a Spool (withSpool, tcp only), batches are spooled to disk rather than dropped while the backend is down or
+ * backed up (including bytes pending on a failed connection), and replayed in order, at the spool's replay rate, once
+ * it recovers.  While the spool holds records, new batches go through it too, so the backend receives events in order.
+ * */
+public class SocketListener extends AbstractBatchingListener {
+    public enum Protocol {TCP, UDP}
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final Protocol protocol;
+    private final EventEncoder encoder;
+    private final long writeTimeoutMillis;
+    private final long connectTimeoutMillis;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    // listener thread only
+    private final ByteBuffer[] buffers;
+    private final int[] bufferEvents;       // events encoded in each buffer, counted if its bytes are discarded
+    private final Spool spool;
+    private final ByteBuffer spoolBuffer;
+    private boolean pendingFromSpool;       // buffers[0] holds a spooled record, committed once written
+    private int head;                       // buffers[head..pending) hold bytes not yet written (tcp)
+    private int pending;
+    private Selector selector;
+    private SocketChannel socket;
+    private DatagramChannel datagram;
+    private long backoffMillis;
+    private long nextConnect;
+    private volatile boolean connected;
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+
+    public static class Builder {
+        private final String host;
+        private final int port;
+        private Protocol protocol = Protocol.TCP;
+        private EventEncoder encoder;
+        private Policy policy = new Policy();
+        private int bufferSize = 256 * 1024;
+        private int datagramSize = 1432;
+        private long writeTimeoutMillis = 1000;
+        private long connectTimeoutMillis = 1000;
+        private long minBackoffMillis = 100;
+        private long maxBackoffMillis = 30_000;
+        private Spool spool;
+
+        public Builder(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public Builder withProtocol(Protocol protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        /** @param encoder the wire format, used by the listener's thread only (default InfluxEncoder) */
+        public Builder withEncoder(EventEncoder encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        public Builder withPolicy(Policy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /** @param bytes max encoded bytes held (tcp), per batch and pending, an event larger than 64kb is dropped */
+        public Builder withBufferSize(int bytes) {
+            if (bytes < 1024)
+                throw new IllegalArgumentException("bufferSize must be >= 1024");
+            this.bufferSize = bytes;
+            return this;
+        }
+
+        /** @param bytes max datagram size (udp), an event larger than this is dropped */
+        public Builder withDatagramSize(int bytes) {
+            if (bytes < 256 || bytes > 65_507)
+                throw new IllegalArgumentException("datagramSize must be in [256, 65507]");
+            this.datagramSize = bytes;
+            return this;
+        }
+
+        /** @param millis max time a batch waits for the backend to take its bytes, the rest stays pending (tcp) */
+        public Builder withWriteTimeout(long millis) {
+            this.writeTimeoutMillis = millis;
+            return this;
+        }
+
+        public Builder withConnectTimeout(long millis) {
+            this.connectTimeoutMillis = millis;
+            return this;
+        }
+
+        /** delay before reconnecting after a failure, doubling per consecutive failure, from min up to max */
+        public Builder withReconnectBackoff(long min, long max, TimeUnit unit) {
+            if (min <= 0 || max < min)
+                throw new IllegalArgumentException("backoff must be 0 < min <= max");
+            this.minBackoffMillis = unit.toMillis(min);
+            this.maxBackoffMillis = unit.toMillis(max);
+            return this;
+        }
+
+        /** @param spool spools batches the backend can not take (tcp), closed with the listener */
+        public Builder withSpool(Spool spool) {
+            this.spool = spool;
+            return this;
+        }
+
+        public SocketListener build() {
+            if (spool != null && protocol != Protocol.TCP)
+                throw new IllegalArgumentException("a spool requires the TCP protocol");
+            return new SocketListener(this);
+        }
+    }
+
+    private SocketListener(Builder b) {
+        super(b.policy);
+        this.host = b.host;
+        this.port = b.port;
+        this.protocol = b.protocol;
+        this.encoder = b.encoder != null ? b.encoder : new InfluxEncoder();
+        this.writeTimeoutMillis = b.writeTimeoutMillis;
+        this.connectTimeoutMillis = b.connectTimeoutMillis;
+        this.minBackoffMillis = b.minBackoffMillis;
+        this.maxBackoffMillis = b.maxBackoffMillis;
+        this.backoffMillis = minBackoffMillis;
+        this.spool = b.spool;
+        if (protocol == Protocol.UDP) {
+            buffers = new ByteBuffer[] {ByteBuffer.allocateDirect(b.datagramSize)};
+        }
+        else {
+            int chunk = Math.min(CHUNK_SIZE, b.bufferSize);
+            buffers = new ByteBuffer[(b.bufferSize + chunk - 1) / chunk];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.allocateDirect(chunk);
+            }
+        }
+        bufferEvents = new int[buffers.length];
+        spoolBuffer = spool != null ? ByteBuffer.allocateDirect(buffers[0].capacity()) : null;
+        start();
+    }
+
+    @Override
+    protected void write(Event[] events, int count) throws IOException {
+        if (!connect()) {
+            spool(events, count);
+            return;
+        }
+        try {
+            if (protocol == Protocol.UDP) {
+                send(events, count);
+            }
+            else {
+                write(events, count, writeTimeoutMillis);
+            }
+        }
+        catch (IOException e) {
+            disconnect();
+            if (spool == null) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    protected void onIdle() {
+        if (spool != null && (!spool.isEmpty() || pending > 0) && connect()) {
+            try {
+                replay();
+            }
+            catch (IOException e) {
+                disconnect();
+            }
+        }
+    }
+
+    private void write(Event[] events, int count, long timeoutMillis) throws IOException {
+        if (spool != null && (!replay() || (pending > 0 && !drain(timeoutMillis)))) {
+            // keeps the order, while the spool is replaying or the backend is backed up
+            spool(events, count);
+            return;
+        }
+        if (pending > 0 && !drain(timeoutMillis)) {
+            // the backend has not taken the previous batch yet
+            countDropped(count);
+            return;
+        }
+        int from = 0;
+        int used = 0;
+        while (from < count && used < buffers.length) {
+            ByteBuffer b = buffers[used];
+            b.clear();
+            int n = encoder.encode(events, from, count, b);
+            from += n;
+            b.flip();
+            if (b.hasRemaining()) {
+                bufferEvents[used++] = n;
+            }
+            else if (from < count) {
+                // larger than an empty buffer
+                from++;
+                countDropped(1);
+            }
+        }
+        if (from < count) {
+            countDropped(count - from);
+        }
+        head = 0;
+        pending = used;
+        drain(timeoutMillis);
+    }
+
+    /** @return true once buffers[head..pending) are written, false if the backend did not take them within timeout */
+    private boolean drain(long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            long n = socket.write(buffers, head, pending - head);
+            bytesSent.add(n);
+            while (head < pending && !buffers[head].hasRemaining()) {
+                head++;
+            }
+            if (head == pending) {
+                head = 0;
+                pending = 0;
+                if (pendingFromSpool) {
+                    spool.commit();
+                    pendingFromSpool = false;
+                }
+                return true;
+            }
+            long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (wait <= 0) {
+                return false;
+            }
+            selector.select(wait);
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /** writes spooled records, until the spool is empty, the replay rate is exhausted or the backend is backed up
+     *  @return true once every spooled record is written */
+    private boolean replay() throws IOException {
+        while (pendingFromSpool || !spool.isEmpty()) {
+            if (pending > 0 && !drain(writeTimeoutMillis)) {
+                return false;
+            }
+            ByteBuffer record = spool.next();
+            if (record == null) {
+                return spool.isEmpty();
+            }
+            ByteBuffer b = buffers[0];
+            if (record.remaining() > b.capacity()) {
+                // spooled with a larger buffer size, by a previous configuration
+                spool.reject();
+                continue;
+            }
+            b.clear();
+            b.put(record);
+            b.flip();
+            head = 0;
+            pending = 1;
+            pendingFromSpool = true;
+        }
+        return true;
+    }
+
+    // encodes the events into the spool, or drops them if there is none
+    private void spool(Event[] events, int count) {
+        if (spool == null) {
+            countDropped(count);
+            return;
+        }
+        int from = 0;
+        while (from < count) {
+            spoolBuffer.clear();
+            int n = encoder.encode(events, from, count, spoolBuffer);
+            spoolBuffer.flip();
+            if (n == 0) {
+                // larger than a buffer
+                n = 1;
+                countDropped(1);
+            }
+            else if (!spool.append(spoolBuffer)) {
+                countDropped(n);
+            }
+            from += n;
+        }
+    }
+
+    // moves the bytes pending on the connection to the spool, a partially written buffer is spooled whole (its lines
+    // may be delivered twice), a spooled record is left uncommitted, to be replayed again.  Without a spool (or once it
+    // is full) the pending events are dropped, counted, a partially written buffer counts all its events.
+    private void respool() {
+        if (!pendingFromSpool) {
+            for (int i = head; i < pending; i++) {
+                buffers[i].rewind();
+                if (spool == null || !spool.append(buffers[i])) {
+                    countDropped(bufferEvents[i]);
+                }
+            }
+        }
+        pendingFromSpool = false;
+    }
+
+    // packs events into datagrams, never splitting an event
+    private void send(Event[] events, int count) throws IOException {
+        ByteBuffer b = buffers[0];
+        int from = 0;
+        while (from < count) {
+            b.clear();
+            int n = encoder.encode(events, from, count, b);
+            b.flip();
+            if (!b.hasRemaining()) {
+                if (n == 0) {
+                    // larger than a datagram
+                    n = 1;
+                    countDropped(1);
+                }
+                from += n;
+                continue;
+            }
+            from += n;
+            int sent = datagram.write(b);
+            if (sent == 0) {
+                countDropped(n);
+            }
+            bytesSent.add(sent);
+        }
+    }
+
+    private boolean connect() {
+        if (socket != null || datagram != null) {
+            return true;
+        }
+        if (System.currentTimeMillis() < nextConnect) {
+            return false;
+        }
+        try {
+            // resolved on each connect, so address changes are picked up
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved()) {
+                // connect would throw UnresolvedAddressException, not an IOException
+                throw new IOException("unresolved host " + host);
+            }
+            if (protocol == Protocol.UDP) {
+                DatagramChannel ch = DatagramChannel.open();
+                try {
+                    ch.configureBlocking(false);
+                    ch.connect(address);
+                }
+                catch (IOException | RuntimeException e) {
+                    ch.close();
+                    throw e;
+                }
+                datagram = ch;
+            }
+            else {
+                connectSocket(address);
+            }
+            backoffMillis = minBackoffMillis;
+            connected = true;
+            connects.increment();
+            return true;
+        }
+        catch (IOException e) {
+            disconnect();
+            return false;
+        }
+    }
+
+    private void connectSocket(InetSocketAddress address) throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+        }
+        SocketChannel ch = SocketChannel.open();
+        try {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = ch.register(selector, SelectionKey.OP_CONNECT);
+            if (!ch.connect(address)) {
+                selector.select(connectTimeoutMillis);
+                selector.selectedKeys().clear();
+                if (!ch.finishConnect()) {
+                    throw new SocketTimeoutException("connect to " + address + " timed out");
+                }
+            }
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+        socket = ch;
+    }
+
+    // drops the connection (and any pending bytes), the next connect waits for the backoff
+    private void disconnect() {
+        respool();
+        close();
+        nextConnect = System.currentTimeMillis() + backoffMillis;
+        backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+    }
+
+    private void close() {
+        connected = false;
+        head = 0;
+        pending = 0;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            if (datagram != null) {
+                datagram.close();
+            }
+        }
+        catch (IOException e) {
+            // closing
+        }
+        socket = null;
+        datagram = null;
+    }
+
+    @Override
+    protected void onStop() {
+        try {
+            if (socket != null && pending > 0) {
+                drain(writeTimeoutMillis);
+            }
+        }
+        catch (IOException e) {
+            // closing
+        }
+        respool();
+        close();
+        if (spool != null) {
+            spool.close();
+        }
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+        catch (IOException e) {
+            // closing
+        }
+    }
+
+    /** @return bytes written to the backend */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /** @return the number of connections (tcp) or channels (udp) opened, 1 + reconnects */
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+}
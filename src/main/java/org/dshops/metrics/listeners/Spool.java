@@ -0,0 +1,417 @@
+package org.dshops.metrics.listeners;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A write-ahead spool of encoded batches, in memory-mapped segment files, for listeners whose backend is unavailable
+ * or backed up (see SocketListener.Builder.withSpool).  Batches are appended as records, and replayed in order, at a
+ * capped rate, once the backend recovers.  The spooled bytes live in the page cache / on disk, not on the heap.
+ * <pre>
+ *     Spool spool = new Spool.Builder(Paths.get("/var/spool/metrics")).withMaxBytes({@code 1L << 30})
+ *                                                                     .withMaxAge(6, TimeUnit.HOURS)
+ *                                                                     .withReplayRate({@code 2 << 20})
+ *                                                                     .build();
+ * </pre>
+ * Segments are pre-sized files (withSegmentSize), a new segment is started once a record does not fit.
+ * Budgets, the oldest segment is unmapped and deleted (its records dropped, counted) when:
+ * <ul>
+ * <li>disk: a new segment would take the spool past withMaxBytes</li>
+ * <li>time: its last append is older than withMaxAge</li>
+ * </ul>
+ * The replay position is kept in each segment, so a restarted process resumes where it stopped (records are delivered
+ * at least once, a record being written when the process stops is replayed again).  Data survives a process crash,
+ * not a power loss, segments are only forced to disk when completed.  A segment file that can not be deleted (e.g. open
+ * elsewhere, on Windows) is marked replayed, retried on each new segment, and still counts against withMaxBytes.
+ *
+ * A spool is used by a single thread (the listener's), and owns its directory.
+ * */
+public final class Spool implements AutoCloseable {
+    private static final String SUFFIX = ".spool";
+    // segment header: replay position, last append time
+    private static final int READ_POS = 0;
+    private static final int LAST_APPEND = 8;
+    private static final int HEADER = 16;
+    // Unsafe.invokeCleaner (9+), or the buffer's cleaner (8), resolved once.  Left to the GC if neither is available.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final long replayRate;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    // files of dropped segments, not deleted yet
+    private final List<Path> undeleted = new ArrayList<>();
+    private long nextSeq;
+    private Segment reading;                // record returned by next(), not yet committed
+    private int readingLength;
+    private double tokens;
+    private long lastRefill;
+    private long droppedSegments;
+    private long droppedBytes;
+    private long rejectedRecords;
+
+    public static class Builder {
+        private final Path dir;
+        private int segmentSize = 16 << 20;
+        private long maxBytes = 256L << 20;
+        private long maxAgeMillis = TimeUnit.HOURS.toMillis(24);
+        private long replayRate = 1 << 20;
+
+        /** @param dir the spool's directory, created if missing, segments already in it are replayed */
+        public Builder(Path dir) {
+            this.dir = dir;
+        }
+
+        /** @param bytes size of a segment file (default 16mb), records larger than a segment are rejected */
+        public Builder withSegmentSize(int bytes) {
+            if (bytes < 4096)
+                throw new IllegalArgumentException("segmentSize must be >= 4096");
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        /** @param bytes disk budget (default 256mb), at least 2 segments */
+        public Builder withMaxBytes(long bytes) {
+            this.maxBytes = bytes;
+            return this;
+        }
+
+        /** @param age records older than this are dropped (default 24 hours) */
+        public Builder withMaxAge(long age, TimeUnit unit) {
+            if (age <= 0)
+                throw new IllegalArgumentException("age must be > 0");
+            this.maxAgeMillis = unit.toMillis(age);
+            return this;
+        }
+
+        /** @param bytesPerSecond max replay rate (default 1mb/s) */
+        public Builder withReplayRate(long bytesPerSecond) {
+            if (bytesPerSecond <= 0)
+                throw new IllegalArgumentException("bytesPerSecond must be > 0");
+            this.replayRate = bytesPerSecond;
+            return this;
+        }
+
+        public Spool build() throws IOException {
+            if (maxBytes < 2L * segmentSize)
+                throw new IllegalArgumentException("maxBytes must hold at least 2 segments");
+            return new Spool(this);
+        }
+    }
+
+    private Spool(Builder b) throws IOException {
+        this.dir = b.dir;
+        this.segmentSize = b.segmentSize;
+        this.maxBytes = b.maxBytes;
+        this.maxAgeMillis = b.maxAgeMillis;
+        this.replayRate = b.replayRate;
+        this.lastRefill = System.nanoTime();
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    // maps the segments left by a previous process, in order
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : ds) {
+                files.add(p);
+            }
+        }
+        Collections.sort(files);
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            long seq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            Segment s = new Segment(p, map(p, (int) Math.max(Files.size(p), HEADER)));
+            s.writePos = s.scan();
+            segments.add(s);
+            nextSeq = seq + 1;
+        }
+    }
+
+    private static MappedByteBuffer map(Path p, int size) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /** Appends src (its remaining bytes) as one record, src is consumed.
+     * @return false if src is larger than a segment, or the segment could not be created */
+    public boolean append(ByteBuffer src) {
+        int len = src.remaining();
+        if (len == 0) {
+            return true;
+        }
+        if (len + 4 > segmentSize - HEADER) {
+            return false;
+        }
+        Segment s = segments.peekLast();
+        if (s == null || s.writePos + 4 + len > s.buf.capacity()) {
+            if (s != null) {
+                s.buf.force();
+            }
+            s = newSegment();
+            if (s == null) {
+                return false;
+            }
+        }
+        int pos = s.writePos;
+        ByteBuffer b = s.buf.duplicate();
+        b.position(pos + 4);
+        b.put(src);
+        s.buf.putInt(pos, len);
+        s.writePos = pos + 4 + len;
+        s.buf.putLong(LAST_APPEND, System.currentTimeMillis());
+        return true;
+    }
+
+    private Segment newSegment() {
+        expire();
+        deleteUndeleted();
+        while (!segments.isEmpty() && (segments.size() + undeleted.size() + 1L) * segmentSize > maxBytes) {
+            drop(segments.peekFirst());
+        }
+        if ((segments.size() + undeleted.size() + 1L) * segmentSize > maxBytes) {
+            // files that could not be deleted hold the budget
+            return null;
+        }
+        Path p = dir.resolve(String.format("%016d", nextSeq++) + SUFFIX);
+        try {
+            Segment s = new Segment(p, map(p, segmentSize));
+            s.buf.putLong(READ_POS, HEADER);
+            s.writePos = HEADER;
+            segments.addLast(s);
+            return s;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    // drops the completed segments last appended to more than maxAge ago
+    private void expire() {
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        while (segments.size() > 1 && segments.peekFirst().buf.getLong(LAST_APPEND) < oldest) {
+            drop(segments.peekFirst());
+        }
+    }
+
+    private void drop(Segment s) {
+        if (s.readPos() < s.writePos) {
+            droppedSegments++;
+            droppedBytes += s.writePos - s.readPos();
+        }
+        delete(s);
+    }
+
+    private void delete(Segment s) {
+        segments.remove(s);
+        if (reading == s) {
+            reading = null;
+        }
+        // should the file survive, the next process finds nothing to replay in it
+        s.buf.putLong(READ_POS, s.writePos);
+        // a mapped file keeps its disk space (linux), or can not be deleted (windows), until unmapped
+        unmap(s.buf);
+        undeleted.add(s.path);
+        deleteUndeleted();
+    }
+
+    private void deleteUndeleted() {
+        for (Iterator<Path> it = undeleted.iterator(); it.hasNext();) {
+            try {
+                Files.deleteIfExists(it.next());
+                it.remove();
+            }
+            catch (IOException e) {
+                // retried on the next segment
+            }
+        }
+    }
+
+    /** The next record to replay, the same record is returned until commit().
+     * @return a read only view of the record (valid until the next call), null if the spool is empty, or the replay
+     *         rate is exhausted for now */
+    public ByteBuffer next() {
+        if (reading == null) {
+            expire();
+            refill();
+            if (tokens <= 0) {
+                return null;
+            }
+            Segment s;
+            while ((s = segments.peekFirst()) != null && s.readPos() >= s.writePos) {
+                if (s == segments.peekLast()) {
+                    return null;
+                }
+                delete(s);
+            }
+            if (s == null) {
+                return null;
+            }
+            reading = s;
+            readingLength = s.buf.getInt(s.readPos());
+            tokens -= readingLength;
+        }
+        ByteBuffer b = reading.buf.asReadOnlyBuffer();
+        int pos = reading.readPos() + 4;
+        b.limit(pos + readingLength);
+        b.position(pos);
+        return b;
+    }
+
+    /** marks the record returned by next() as delivered */
+    public void commit() {
+        if (reading != null) {
+            reading.buf.putLong(READ_POS, reading.readPos() + 4 + readingLength);
+            reading = null;
+        }
+    }
+
+    /** skips the record returned by next(), the reader can not deliver it (counted, see getRejectedRecords) */
+    public void reject() {
+        if (reading != null) {
+            rejectedRecords++;
+            droppedBytes += readingLength;
+            commit();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        // bursts are capped to one second of replay
+        tokens = Math.min(replayRate, tokens + (now - lastRefill) * replayRate / 1e9);
+        lastRefill = now;
+    }
+
+    /** @return true if no records are waiting for replay */
+    public boolean isEmpty() {
+        for (Segment s : segments) {
+            if (s.readPos() < s.writePos) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return bytes of records waiting for replay */
+    public long getSpooledBytes() {
+        long bytes = 0;
+        for (Segment s : segments) {
+            bytes += s.writePos - s.readPos();
+        }
+        return bytes;
+    }
+
+    /** @return segments dropped, because of the disk or time budget */
+    public long getDroppedSegments() {
+        return droppedSegments;
+    }
+
+    /** @return record bytes dropped (not replayed), because of the disk or time budget, or rejected by the reader */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /** @return records skipped with reject() */
+    public long getRejectedRecords() {
+        return rejectedRecords;
+    }
+
+    /** forces the segments to disk, they stay in the directory for the next process */
+    @Override
+    public void close() {
+        for (Segment s : segments) {
+            s.buf.force();
+            unmap(s.buf);
+        }
+        segments.clear();
+        reading = null;
+        deleteUndeleted();
+    }
+
+    /** releases the mapping now, rather than when the buffer is collected, buf must not be used afterwards */
+    private static void unmap(MappedByteBuffer buf) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buf);
+            }
+            else {
+                Method cleaner = buf.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buf);
+                if (c != null) {
+                    c.getClass().getMethod("clean").invoke(c);
+                }
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // unmapped once collected
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        final MappedByteBuffer buf;
+        int writePos;
+
+        Segment(Path path, MappedByteBuffer buf) {
+            this.path = path;
+            this.buf = buf;
+        }
+
+        int readPos() {
+            return (int) buf.getLong(READ_POS);
+        }
+
+        // the end of the records: files are zero filled, so a zero length marks the end
+        int scan() {
+            int pos = HEADER;
+            while (pos + 4 <= buf.capacity()) {
+                int len = buf.getInt(pos);
+                if (len <= 0 || pos + 4 + len > buf.capacity()) {
+                    break;
+                }
+                pos += 4 + len;
+            }
+            if (readPos() < HEADER || readPos() > pos) {
+                buf.putLong(READ_POS, HEADER);
+            }
+            return pos;
+        }
+    }
+}
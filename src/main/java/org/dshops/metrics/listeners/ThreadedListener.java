@@ -5,7 +5,9 @@ import org.dshops.metrics.EventListener;
 /**
  * Base class that can be used for EventListener that dispatch events on a secondary thread.
  * The recommend approach, as onEvent should be as fast as possible.
+ * @deprecated extend AbstractBatchingListener, which also provides the queue, the drain loop and batching policies
  * */
+@Deprecated
 public abstract class ThreadedListener implements EventListener {
     protected Thread runThread = null;
     protected volatile boolean stopRequested = false;
@@ -0,0 +1,115 @@
+package org.dshops.metrics;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+/** JVM metrics streamed from JDK Flight Recorder (Java 17 implementation, packaged under META-INF/versions/17).
+ *
+ *  Pauses are recorded into percentile timers:
+ *  jvm.gc.pause (tagged gc=collector, sum of pauses per collection), jvm.safepoint.sync (time to reach a safepoint)
+ *  and jvm.safepoint.pause (time spent in safepoint VM operations).
+ *  Everything else is accumulated into interval aggregated DELTA counters, reported once per interval:
+ *  jvm.gc.count, jvm.alloc.bytes (sampled allocation weight), jvm.monitor.contended / jvm.monitor.blocked (monitor
+ *  enters blocked for at least MONITOR_THRESHOLD), jvm.jit.compilations / jvm.jit.time.  Times are in the registry timer unit.
+ *
+ *  All events are consumed on the stream's own (daemon) thread, nothing is polled.
+ * */
+final class JfrMetrics implements AutoCloseable {
+    static final Duration MONITOR_THRESHOLD = Duration.ofMillis(10);
+
+    private final RecordingStream stream;
+    private final MetricRegistry registry;
+    private final TimeUnit timerUnit;
+    // stream thread only
+    private final Map<String,TimerHandle> gcPauses = new HashMap<>();
+
+    private final TimerHandle safepointSync;
+    private final TimerHandle safepointPause;
+    private final Counter gcCount;
+    private final Counter allocated;
+    private final Counter monitorContended;
+    private final Counter monitorBlocked;
+    private final Counter compilations;
+    private final Counter compileTime;
+
+    private JfrMetrics(MetricRegistry registry, int intervalInSeconds) {
+        this.registry = registry;
+        this.timerUnit = registry.getTimerUnit();
+        safepointSync = registry.percentileTimerHandle("jvm.safepoint.sync");
+        safepointPause = registry.percentileTimerHandle("jvm.safepoint.pause");
+        gcCount = registry.counter("jvm.gc.count", Counter.ReportMode.DELTA, intervalInSeconds);
+        allocated = registry.counter("jvm.alloc.bytes", Counter.ReportMode.DELTA, intervalInSeconds);
+        monitorContended = registry.counter("jvm.monitor.contended", Counter.ReportMode.DELTA, intervalInSeconds);
+        monitorBlocked = registry.counter("jvm.monitor.blocked", Counter.ReportMode.DELTA, intervalInSeconds);
+        compilations = registry.counter("jvm.jit.compilations", Counter.ReportMode.DELTA, intervalInSeconds);
+        compileTime = registry.counter("jvm.jit.time", Counter.ReportMode.DELTA, intervalInSeconds);
+
+        stream = new RecordingStream();
+        stream.enable("jdk.GarbageCollection");
+        stream.enable("jdk.SafepointBegin");
+        stream.enable("jdk.ExecuteVMOperation");
+        stream.enable("jdk.ObjectAllocationSample").with("throttle", "150/s");
+        stream.enable("jdk.JavaMonitorEnter").withThreshold(MONITOR_THRESHOLD);
+        stream.enable("jdk.Compilation").withThreshold(Duration.ZERO);
+        // the disk repository only needs to hold events not consumed yet
+        stream.setMaxAge(Duration.ofSeconds(Math.max(10, intervalInSeconds)));
+
+        stream.onEvent("jdk.GarbageCollection", this::onGc);
+        stream.onEvent("jdk.SafepointBegin", e -> record(safepointSync, e.getDuration()));
+        stream.onEvent("jdk.ExecuteVMOperation", e -> {
+            if (e.getBoolean("safepoint")) {
+                record(safepointPause, e.getDuration());
+            }
+        });
+        stream.onEvent("jdk.ObjectAllocationSample", e -> allocated.add(e.getLong("weight")));
+        stream.onEvent("jdk.JavaMonitorEnter", e -> {
+            monitorContended.increment();
+            monitorBlocked.add(toTimerUnit(e.getDuration()));
+        });
+        stream.onEvent("jdk.Compilation", e -> {
+            compilations.increment();
+            compileTime.add(toTimerUnit(e.getDuration()));
+        });
+        stream.startAsync();
+    }
+
+    /** @return the running stream, close it to stop reporting, or null if JFR is not available in this JVM */
+    static AutoCloseable start(MetricRegistry registry, int intervalInSeconds) {
+        try {
+            return new JfrMetrics(registry, intervalInSeconds);
+        }
+        catch (Exception | LinkageError e) {
+            // jfr disabled (-XX:-FlightRecorder), or jdk.jfr not in the runtime image
+            return null;
+        }
+    }
+
+    private void onGc(RecordedEvent e) {
+        gcCount.increment();
+        String gc = e.getString("name");
+        TimerHandle pause = gcPauses.get(gc);
+        if (pause == null) {
+            pause = registry.percentileTimerHandle("jvm.gc.pause", "gc", gc);
+            gcPauses.put(gc, pause);
+        }
+        record(pause, e.getDuration("sumOfPauses"));
+    }
+
+    private static void record(TimerHandle timer, Duration d) {
+        timer.record(d.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private long toTimerUnit(Duration d) {
+        return timerUnit.convert(d.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
@@ -0,0 +1,105 @@
+package org.dshops.test.generators;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.dshops.metrics.DoubleEvent;
+import org.dshops.metrics.Event;
+import org.dshops.metrics.LongEvent;
+import org.dshops.metrics.archive.ArchiveReader;
+import org.dshops.metrics.listeners.AbstractBatchingListener.Policy;
+import org.dshops.metrics.listeners.ArchiveListener;
+
+/**
+ * Writes a day of typical series (counters, gauges, random walk doubles, timers) through an ArchiveListener, reads the
+ * archive back, checks every point round trips exactly, and prints the archive size per point against the text format
+ * (Event.toString()).  Exits 1 on a failure.
+ * */
+public class ArchiveDriver {
+    private static final int SERIES = 50;
+    private static final int POINTS = 8640;    // a day at 10s
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("archive");
+        ArchiveListener listener = new ArchiveListener.Builder(dir).withPolicy(new Policy().withQueueSize(100_000)
+                                                                                             .withOfferTime(1000))
+                                                                   .withBlockAge(1, TimeUnit.HOURS)
+                                                                   .build();
+        Random r = new Random(7);
+        Map<String,List<Event>> expected = new HashMap<>();
+        long textBytes = 0;
+        long start = 1_700_000_000_000L;
+        double[] walk = new double[SERIES];
+        long[] counters = new long[SERIES];
+        for (int p = 0; p < POINTS; p++) {
+            for (int s = 0; s < SERIES; s++) {
+                // scheduled every 10s, with a few ms of jitter
+                long ts = start + p * 10_000L + (r.nextInt(10) < 8 ? 0 : r.nextInt(5));
+                Map<String,String> tags = new HashMap<>();
+                tags.put("host", "node" + (s % 5));
+                tags.put("datacenter", "dc1");
+                Event e;
+                switch (s % 4) {
+                    case 0:
+                        counters[s] += 100 + r.nextInt(3);
+                        e = new LongEvent("svc.requests.counter", tags(tags, s), ts, counters[s]);
+                        break;
+                    case 1:
+                        e = new LongEvent("svc.threads.gauge", tags(tags, s), ts, 40 + (r.nextInt(20) == 0 ? r.nextInt(4) : 0));
+                        break;
+                    case 2:
+                        walk[s] += r.nextGaussian() * 0.5;
+                        e = new DoubleEvent("svc.load.gauge", tags(tags, s), ts, Math.round(walk[s] * 100) / 100.0);
+                        break;
+                    default:
+                        e = new DoubleEvent("svc.latency.p99", tags(tags, s), ts, 12.5 + r.nextInt(4) * 0.25);
+                }
+                textBytes += e.toString().length() + 1;
+                expected.computeIfAbsent(e.getName() + e.getTags(), k -> new ArrayList<>()).add(e);
+                listener.onEvent(e);
+            }
+        }
+        listener.stop();
+        long archiveBytes = Files.size(listener.getFile());
+
+        int failures = 0;
+        int read = 0;
+        Map<String,Integer> positions = new HashMap<>();
+        try (ArchiveReader reader = new ArchiveReader(Files.newInputStream(listener.getFile()))) {
+            while (reader.next()) {
+                String key = reader.getName() + reader.getTags();
+                int pos = positions.merge(key, 1, Integer::sum) - 1;
+                List<Event> series = expected.get(key);
+                Event e = series == null || pos >= series.size() ? null : series.get(pos);
+                boolean ok = e != null && e.getTimestamp() == reader.getTimestamp()
+                             && (reader.isDouble() ? Double.compare(e.getDoubleValue(), reader.getDoubleValue()) == 0
+                                                   : e.getLongValue() == reader.getLongValue());
+                if (!ok && failures++ < 5) {
+                    System.out.println("  mismatch " + reader.toEvent() + " expected " + e);
+                }
+                read++;
+            }
+        }
+        int total = SERIES * POINTS;
+        System.out.printf("%d points, archive %d bytes (%.2f bytes/point), text %d bytes (%.1f bytes/point), %.0fx%n",
+                          read, archiveBytes, archiveBytes / (double) read, textBytes, textBytes / (double) total,
+                          textBytes / (double) archiveBytes);
+        if (read != total || failures > 0 || listener.getDroppedEvents() > 0) {
+            System.out.println("FAILED: read " + read + " of " + total + ", " + failures + " mismatches, "
+                               + listener.getDroppedEvents() + " dropped");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static Map<String,String> tags(Map<String,String> tags, int s) {
+        tags.put("instance", "i" + s);
+        return tags;
+    }
+}
@@ -0,0 +1,276 @@
+package org.dshops.test.generators;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dshops.metrics.MetricRegistry;
+import org.dshops.metrics.encoders.InfluxEncoder;
+import org.dshops.metrics.listeners.AbstractBatchingListener.Policy;
+import org.dshops.metrics.listeners.SocketListener;
+import org.dshops.metrics.listeners.SocketListener.Protocol;
+import org.dshops.metrics.listeners.Spool;
+import org.dshops.test.server.LineServer;
+
+/**
+ * Drives a SocketListener against an in-process LineServer, over TCP and UDP, and checks every line received is a
+ * well formed influx line of an event sent (no corruption, no duplicates), that the events sent are received or counted
+ * as dropped, that a paused/dropped backend is survived, and that events spooled while the backend is down are
+ * replayed in order.  Prints the delivered throughput, exits 1 on a failure.
+ * */
+public class SocketListenerDriver {
+    private static final int EVENTS = 200_000;
+    private static final String NAME = "drv.event";
+
+    private final BitSet received = new BitSet(EVENTS);
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private int failures;
+
+    public static void main(String[] args) throws Exception {
+        SocketListenerDriver d = new SocketListenerDriver();
+        d.run(Protocol.TCP);
+        d.run(Protocol.UDP);
+        d.slowBackend();
+        d.stopPending();
+        d.unresolved();
+        d.spool();
+        System.out.println(d.failures == 0 ? "OK" : d.failures + " checks FAILED");
+        System.exit(d.failures == 0 ? 0 : 1);
+    }
+
+    // line: drv.socket.test.drv.event.event,datacenter=local,driver=socket,host=localhost value=<seq>i <ts>
+    private void onLine(String line) {
+        int v = line.indexOf(" value=");
+        int end = line.lastIndexOf("i ");
+        if (!line.startsWith("drv.socket.test." + NAME + ".event,datacenter=local,driver=socket,host=localhost value=") || end < v) {
+            malformed.incrementAndGet();
+            return;
+        }
+        try {
+            int seq = Integer.parseInt(line.substring(v + 7, end));
+            Long.parseLong(line.substring(end + 2));
+            synchronized (received) {
+                if (received.get(seq)) {
+                    duplicates.incrementAndGet();
+                }
+                received.set(seq);
+            }
+        }
+        catch (NumberFormatException e) {
+            malformed.incrementAndGet();
+        }
+    }
+
+    private void run(Protocol protocol) throws Exception {
+        synchronized (received) {
+            received.clear();
+        }
+        malformed.set(0);
+        duplicates.set(0);
+        try (LineServer server = new LineServer(this::onLine)) {
+            SocketListener listener = new SocketListener.Builder("127.0.0.1", server.getPort())
+                                                        .withProtocol(protocol)
+                                                        .withEncoder(new InfluxEncoder())
+                                                        .withPolicy(new Policy().withQueueSize(50_000)
+                                                                                .withMaxEvents(1000)
+                                                                                .withLinger(50, TimeUnit.MILLISECONDS))
+                                                        .build();
+            MetricRegistry reg = new MetricRegistry.Builder("drv", "socket", "test", "localhost", "local").build();
+            reg.addEventListener(listener);
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                reg.event(NAME, i, "driver", "socket");
+                while (listener.eventsBuffered() > 40_000) {
+                    // let the listener keep up, this measures delivery, not the queue
+                    Thread.sleep(1);
+                }
+                // udp has no backpressure, the server's socket buffer silently drops what it can not take: at most
+                // 10,000 events in flight, or 100ms, so a reader descheduled on a small box is not measured as loss
+                for (int w = 0; protocol == Protocol.UDP && w < 100 && i - server.getLines() - listener.getDroppedEvents() > 10_000; w++) {
+                    Thread.sleep(1);
+                }
+            }
+            long dropped = 0;
+            long lines = -1;
+            long last = System.nanoTime();
+            // until everything arrived, or nothing more arrives (udp loss)
+            while (System.nanoTime() - last < TimeUnit.MILLISECONDS.toNanos(500)) {
+                dropped = listener.getDroppedEvents();
+                if (server.getLines() + dropped >= EVENTS) {
+                    last = System.nanoTime();
+                    break;
+                }
+                if (server.getLines() != lines) {
+                    lines = server.getLines();
+                    last = System.nanoTime();
+                }
+                Thread.sleep(10);
+            }
+            double secs = (last - start) / 1e9;
+            reg.removeEventListener(listener, true);
+            int count;
+            synchronized (received) {
+                count = received.cardinality();
+            }
+            System.out.printf("%s: received %d, dropped %d, %d bytes, %.0f events/s, %d datagrams%n",
+                              protocol, count, dropped, listener.getBytesSent(), count / secs, server.getDatagrams());
+            check(protocol + " payload well formed", malformed.get() == 0);
+            check(protocol + " no duplicates", duplicates.get() == 0);
+            if (protocol == Protocol.TCP) {
+                check("TCP every event received or counted", count + dropped == EVENTS);
+            }
+            else {
+                // udp may be lost silently (in the kernel, not counted), paced over loopback nearly all arrive
+                check("UDP events received", count >= EVENTS * 0.95 && count + dropped <= EVENTS);
+                check("UDP datagrams packed", server.getDatagrams() < count);
+            }
+        }
+    }
+
+    private void slowBackend() throws Exception {
+        try (LineServer server = new LineServer(l -> {})) {
+            SocketListener listener = new SocketListener.Builder("127.0.0.1", server.getPort())
+                                                        .withBufferSize(64 * 1024)
+                                                        .withWriteTimeout(20)
+                                                        .withReconnectBackoff(10, 100, TimeUnit.MILLISECONDS)
+                                                        .withPolicy(new Policy().withQueueSize(10_000)
+                                                                                .withLinger(10, TimeUnit.MILLISECONDS))
+                                                        .build();
+            MetricRegistry reg = new MetricRegistry.Builder("drv", "socket", "test", "localhost", "local").build();
+            reg.addEventListener(listener);
+            server.setPaused(true);
+            long start = System.nanoTime();
+            for (int i = 0; i < 2_000_000; i++) {
+                reg.event(NAME, i, "driver", "socket");
+            }
+            long emitNanos = System.nanoTime() - start;
+            check("paused backend drops", listener.getDroppedEvents() > 0);
+            check("paused backend bounded", listener.eventsBuffered() <= 10_000 + 500);
+            System.out.printf("paused: 2M events emitted in %dms, dropped %d%n",
+                              TimeUnit.NANOSECONDS.toMillis(emitNanos), listener.getDroppedEvents());
+            server.setPaused(false);
+            server.dropConnections();
+            Thread.sleep(200);
+            long before = server.getLines();
+            for (int i = 0; i < 1000; i++) {
+                reg.event(NAME, i, "driver", "socket");
+                Thread.sleep(1);
+            }
+            Thread.sleep(500);
+            check("reconnected", listener.getConnects() >= 2 && listener.isConnected());
+            check("delivers after reconnect", server.getLines() > before);
+            reg.removeEventListener(listener, true);
+        }
+    }
+
+    // a host that does not resolve is backed off, its events counted as dropped, over both protocols
+    private void unresolved() throws Exception {
+        for (Protocol protocol : Protocol.values()) {
+            SocketListener listener = new SocketListener.Builder("no-such-host.invalid", 8086)
+                                                        .withProtocol(protocol)
+                                                        .withPolicy(new Policy().withLinger(10, TimeUnit.MILLISECONDS))
+                                                        .build();
+            MetricRegistry reg = new MetricRegistry.Builder("drv", "socket", "test", "localhost", "local").build();
+            reg.addEventListener(listener);
+            for (int i = 0; i < 100; i++) {
+                reg.event(NAME, i, "driver", "socket");
+                Thread.sleep(1);
+            }
+            Thread.sleep(200);
+            check(protocol + " unresolved host, events counted", listener.getDroppedEvents() == 100 && listener.getConnects() == 0);
+            reg.removeEventListener(listener, true);
+        }
+    }
+
+    // bytes still pending when the listener stops are counted as dropped, not discarded silently
+    private void stopPending() throws Exception {
+        int events = 500_000;
+        try (LineServer server = new LineServer(l -> {})) {
+            SocketListener listener = new SocketListener.Builder("127.0.0.1", server.getPort())
+                                                        .withBufferSize(64 * 1024)
+                                                        .withWriteTimeout(20)
+                                                        .withPolicy(new Policy().withQueueSize(10_000)
+                                                                                .withLinger(10, TimeUnit.MILLISECONDS))
+                                                        .build();
+            MetricRegistry reg = new MetricRegistry.Builder("drv", "socket", "test", "localhost", "local").build();
+            reg.addEventListener(listener);
+            server.setPaused(true);
+            for (int i = 0; i < events; i++) {
+                reg.event(NAME, i, "driver", "socket");
+            }
+            reg.removeEventListener(listener, true);
+            server.setPaused(false);
+            long lines = -1;
+            while (server.getLines() != lines) {
+                lines = server.getLines();
+                Thread.sleep(200);
+            }
+            System.out.printf("stopped while paused: received %d, dropped %d%n", lines, listener.getDroppedEvents());
+            // a partially written buffer counts all its events
+            check("stopped with pending bytes, every event received or counted", lines + listener.getDroppedEvents() >= events);
+        }
+    }
+
+    // backend down while events are sent, they are spooled, and replayed in order once it is up
+    private void spool() throws Exception {
+        int events = 20_000;
+        Path dir = Files.createTempDirectory("spool");
+        int port;
+        try (LineServer probe = new LineServer(l -> {})) {
+            port = probe.getPort();
+        }
+        Spool spool = new Spool.Builder(dir).withSegmentSize(256 * 1024)
+                                            .withMaxBytes(64 << 20)
+                                            .withReplayRate(1 << 20)
+                                            .build();
+        SocketListener listener = new SocketListener.Builder("127.0.0.1", port)
+                                                    .withSpool(spool)
+                                                    .withReconnectBackoff(10, 100, TimeUnit.MILLISECONDS)
+                                                    .withPolicy(new Policy().withQueueSize(50_000)
+                                                                            .withLinger(10, TimeUnit.MILLISECONDS))
+                                                    .build();
+        MetricRegistry reg = new MetricRegistry.Builder("drv", "socket", "test", "localhost", "local").build();
+        reg.addEventListener(listener);
+        for (int i = 0; i < events; i++) {
+            reg.event(NAME, i, "driver", "socket");
+        }
+        Thread.sleep(300);
+        long spooled = spool.getSpooledBytes();
+        List<Integer> seqs = new CopyOnWriteArrayList<>();
+        try (LineServer server = new LineServer(port, l -> {
+                int v = l.indexOf(" value=");
+                seqs.add(Integer.parseInt(l.substring(v + 7, l.lastIndexOf("i "))));
+            })) {
+            long start = System.nanoTime();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (seqs.size() < events && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            boolean ordered = true;
+            for (int i = 0; i < seqs.size(); i++) {
+                ordered &= seqs.get(i) == i;
+            }
+            System.out.printf("spool: %d bytes spooled, %d replayed in %.2fs (%.0f bytes/s)%n",
+                              spooled, seqs.size(), secs, server.getBytes() / secs);
+            check("spooled while down", spooled > 0);
+            check("replayed every event", seqs.size() == events && listener.getDroppedEvents() == 0);
+            check("replayed in order", ordered);
+            check("replay rate capped", secs > 0.5 * spooled / (1 << 20));
+            check("spool drained", spool.isEmpty());
+            reg.removeEventListener(listener, true);
+        }
+    }
+
+    private void check(String what, boolean ok) {
+        if (!ok) {
+            failures++;
+        }
+        System.out.println((ok ? "  ok     " : "  FAILED ") + what);
+    }
+}
@@ -0,0 +1,173 @@
+package org.dshops.test.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for a line protocol backend (influx, graphite, opentsdb), over TCP and UDP on a local port.
+ * Each received line is handed to a consumer, lines/bytes are counted.  Reading can be paused, to simulate a slow
+ * backend, and connections dropped, to simulate a failing one.
+ * */
+public class LineServer implements AutoCloseable {
+    private final ServerSocketChannel tcp;
+    private final DatagramChannel udp;
+    private final Consumer<String> lineConsumer;
+    private final List<SocketChannel> connections = new CopyOnWriteArrayList<>();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong datagrams = new AtomicLong();
+    private volatile boolean paused;
+    private volatile boolean closed;
+
+    public LineServer(Consumer<String> lineConsumer) throws IOException {
+        this(0, lineConsumer);
+    }
+
+    /** @param port local port, 0 for any free port */
+    public LineServer(int port, Consumer<String> lineConsumer) throws IOException {
+        this.lineConsumer = lineConsumer;
+        tcp = ServerSocketChannel.open();
+        tcp.bind(new InetSocketAddress("127.0.0.1", port));
+        port = ((InetSocketAddress) tcp.getLocalAddress()).getPort();
+        udp = DatagramChannel.open();
+        // the kernel drops datagrams once this fills, while the reader thread is descheduled
+        udp.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20);
+        udp.bind(new InetSocketAddress("127.0.0.1", port));
+        thread("line-server-accept", this::accept);
+        thread("line-server-udp", this::receive);
+    }
+
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) tcp.getLocalAddress()).getPort();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void thread(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                SocketChannel ch = tcp.accept();
+                connections.add(ch);
+                thread("line-server-conn", () -> read(ch));
+            }
+            catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void read(SocketChannel ch) {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        StringBuilder line = new StringBuilder();
+        try {
+            while (!closed) {
+                if (paused) {
+                    Thread.sleep(10);
+                    continue;
+                }
+                buf.clear();
+                if (ch.read(buf) < 0) {
+                    break;
+                }
+                buf.flip();
+                consume(buf, line);
+            }
+        }
+        catch (IOException | InterruptedException e) {
+            // dropped
+        }
+        finally {
+            connections.remove(ch);
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buf = ByteBuffer.allocate(65_536);
+        while (!closed) {
+            try {
+                buf.clear();
+                udp.receive(buf);
+                buf.flip();
+                datagrams.incrementAndGet();
+                // datagrams hold whole lines
+                consume(buf, new StringBuilder());
+            }
+            catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void consume(ByteBuffer buf, StringBuilder line) {
+        bytes.addAndGet(buf.remaining());
+        int start = buf.position();
+        for (int i = buf.position(); i < buf.limit(); i++) {
+            if (buf.get(i) == '\n') {
+                line.append(StandardCharsets.UTF_8.decode(slice(buf, start, i)));
+                lines.incrementAndGet();
+                lineConsumer.accept(line.toString());
+                line.setLength(0);
+                start = i + 1;
+            }
+        }
+        line.append(StandardCharsets.UTF_8.decode(slice(buf, start, buf.limit())));
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int from, int to) {
+        ByteBuffer b = buf.duplicate();
+        b.limit(to);
+        b.position(from);
+        return b;
+    }
+
+    /** @param paused true to stop reading tcp connections, so senders fill their socket buffers */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /** closes the accepted tcp connections, the server keeps accepting */
+    public void dropConnections() throws IOException {
+        for (SocketChannel ch : connections) {
+            ch.close();
+        }
+    }
+
+    public long getLines() {
+        return lines.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getDatagrams() {
+        return datagrams.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        tcp.close();
+        udp.close();
+        dropConnections();
+    }
+}